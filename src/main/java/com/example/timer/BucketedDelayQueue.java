@@ -0,0 +1,239 @@
+package com.example.timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * BucketedDelayQueue: TimerEngine that expires timers a whole tick at a time.
+ *
+ * Every timer goes into the bucket of the first tick boundary at or after its
+ * deadline ({@code tickMillis} wide, timer.engine=bucket). Only buckets are put
+ * in a java.util.concurrent.DelayQueue, one entry per tick that has timers, so
+ * thousands of tasks scheduled within the same tick (e.g. a burst of 53s
+ * defaults) cost one heap operation and one reaper wakeup together instead of
+ * one each, like Kafka's request purgatory.
+ *
+ * Threading: schedule and cancel link/unlink the timer under its bucket's lock,
+ * so a cancelled timer is freed right away (O(1)). The "reaper" thread takes
+ * each due bucket off the queue, detaches its whole list and runs the timers
+ * itself, so a timer fires at most one tick late and never early. Tasks must be
+ * short; TimerManager's tasks only hand the work over to the callback pool.
+ */
+final class BucketedDelayQueue implements TimerEngine {
+
+	private final long tickNanos;
+	private final long startNanos = System.nanoTime();
+	private final DelayQueue<Bucket> queue = new DelayQueue<>();
+	// tick -> bucket, from the first timer of that tick until the reaper takes the bucket
+	private final ConcurrentHashMap<Long, Bucket> buckets = new ConcurrentHashMap<>();
+	private final Thread reaper;
+	private volatile boolean running = true;
+
+	BucketedDelayQueue(long tickMillis, String reaperName) {
+		if (tickMillis <= 0) {
+			throw new IllegalArgumentException("timer.bucket.tickMs must be positive");
+		}
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.reaper = new Thread(this::run, reaperName);
+		this.reaper.setDaemon(true);
+		this.reaper.start();
+	}
+
+	@Override
+	public Handle schedule(Runnable task, long delay, TimeUnit unit) {
+		Timeout timeout = new Timeout(task, System.nanoTime() + TimerEngine.delayNanos(delay, unit));
+		long tick = deadlineTick(timeout.deadlineNanos);
+		// a bucket the reaper has just taken refuses the timer; its replacement for the same tick is due at once
+		Bucket bucket;
+		do {
+			bucket = buckets.computeIfAbsent(tick, this::newBucket);
+		} while (!bucket.add(timeout));
+		return timeout;
+	}
+
+	private Bucket newBucket(long tick) {
+		Bucket bucket = new Bucket(tick, startNanos + tick * tickNanos);
+		queue.offer(bucket);
+		return bucket;
+	}
+
+	// first tick boundary at or after the deadline, so timers never fire early
+	private long deadlineTick(long deadlineNanos) {
+		long elapsed = deadlineNanos - startNanos;
+		return elapsed <= 0 ? 0 : (elapsed + tickNanos - 1) / tickNanos;
+	}
+
+	@Override
+	public void shutdown() {
+		running = false;
+		reaper.interrupt();
+		try {
+			reaper.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void run() {
+		while (running) {
+			Bucket bucket;
+			try {
+				bucket = queue.take();
+			} catch (InterruptedException e) {
+				// shutdown()
+				continue;
+			}
+			// every bucket that is due goes out on this one wakeup
+			while (bucket != null) {
+				buckets.remove(bucket.tick, bucket);
+				expire(bucket.drain());
+				bucket = queue.poll();
+			}
+		}
+	}
+
+	private static void expire(Timeout timeout) {
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			timeout.next = null;
+			if (timeout.expire()) {
+				try {
+					timeout.task.run();
+				} catch (RuntimeException ex) {
+					// never let one task kill the reaper thread
+					ex.printStackTrace();
+				}
+			}
+			timeout = next;
+		}
+	}
+
+	/**
+	 * A single armed timer. It is also the node of its bucket's intrusive list,
+	 * so arming a timer costs one allocation besides the bucket it may share.
+	 */
+	private static final class Timeout implements Handle {
+
+		static final int PENDING = 0;
+		static final int CANCELLED = 1;
+		static final int EXPIRED = 2;
+
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+			AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+		final Runnable task;
+		final long deadlineNanos;
+		volatile int state = PENDING;
+
+		// bucket links, only changed under the bucket's lock (bucket is null once detached)
+		volatile Bucket bucket;
+		Timeout prev;
+		Timeout next;
+
+		Timeout(Runnable task, long deadlineNanos) {
+			this.task = task;
+			this.deadlineNanos = deadlineNanos;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+				return false;
+			}
+			Bucket current = bucket;
+			if (current != null) {
+				current.remove(this);
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isDone() {
+			return state != PENDING;
+		}
+
+		boolean expire() {
+			return STATE.compareAndSet(this, PENDING, EXPIRED);
+		}
+	}
+
+	/**
+	 * The timers due at one tick, as a doubly linked list; the DelayQueue element.
+	 */
+	private static final class Bucket implements Delayed {
+
+		final long tick;
+		final long expirationNanos;
+		private Timeout head;
+		private Timeout tail;
+		// set by the reaper when it takes the bucket; later timers go to a new bucket
+		private boolean drained;
+
+		Bucket(long tick, long expirationNanos) {
+			this.tick = tick;
+			this.expirationNanos = expirationNanos;
+		}
+
+		synchronized boolean add(Timeout timeout) {
+			if (drained) {
+				return false;
+			}
+			timeout.prev = tail;
+			timeout.next = null;
+			if (tail == null) {
+				head = timeout;
+			} else {
+				tail.next = timeout;
+			}
+			tail = timeout;
+			timeout.bucket = this;
+			return true;
+		}
+
+		synchronized void remove(Timeout timeout) {
+			if (timeout.bucket != this) {
+				// drained meanwhile, the reaper skips it
+				return;
+			}
+			if (timeout.prev == null) {
+				head = timeout.next;
+			} else {
+				timeout.prev.next = timeout.next;
+			}
+			if (timeout.next == null) {
+				tail = timeout.prev;
+			} else {
+				timeout.next.prev = timeout.prev;
+			}
+			timeout.bucket = null;
+			timeout.prev = null;
+			timeout.next = null;
+		}
+
+		// Detach the whole list; the caller walks it through the next links.
+		synchronized Timeout drain() {
+			drained = true;
+			Timeout first = head;
+			for (Timeout t = first; t != null; t = t.next) {
+				t.bucket = null;
+				t.prev = null;
+			}
+			head = null;
+			tail = null;
+			return first;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(expirationNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			return Long.compare(tick, ((Bucket) other).tick);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.example.timer;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CallbackBatcher: coalesces fired tasks into batched callbacks.
+ *
+ * When many appIds come due in the same tick, posting them one by one costs a
+ * full HTTP round trip each. With callback.batch.enabled=true the shards hand
+ * fired tasks to this batcher instead of the callback pool; a single
+ * "TimerManager-batcher" thread collects them until either
+ * callback.batch.maxSize tasks are waiting or callback.batch.windowMs has passed
+ * since the first one, then hands the whole batch to TimerManager.processBatch(),
+ * which posts it as one JSON array.
+ *
+ * Each batch holds one of the dispatcher's callback.maxInFlight permits until
+ * its post completes. With all permits taken the batcher thread waits, its
+ * queue fills up and the shards retry fired tasks, as they do for a saturated
+ * dispatcher.
+ *
+ * maxSize and the window can be changed on a config reload; the next batch
+ * picks them up.
+ */
+final class CallbackBatcher {
+
+	private volatile int maxSize;
+	private volatile long windowNanos;
+	private final LinkedBlockingQueue<Map.Entry<String, String>> queue;
+	// bounds the outstanding batch posts together with the per-task callbacks
+	private final CallbackDispatcher callbacks;
+	private final Thread flusher;
+	private volatile boolean running = true;
+
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder batchedTasks = new LongAdder();
+
+	CallbackBatcher(int maxSize, long windowMillis, int queueCapacity, CallbackDispatcher callbacks) {
+		this.maxSize = maxSize;
+		this.callbacks = callbacks;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		this.queue = new LinkedBlockingQueue<>(queueCapacity);
+		this.flusher = new Thread(this::run, "TimerManager-batcher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/**
+	 * Queues a fired task for the next batch.
+	 *
+	 * @return false if the queue is full (or the batcher stopped) and the task was not accepted.
+	 */
+	boolean offer(String appId, String payloadJson) {
+		return running && queue.offer(new AbstractMap.SimpleImmutableEntry<>(appId, payloadJson));
+	}
+
+	private void run() {
+		List<Map.Entry<String, String>> batch = new ArrayList<>();
+		while (running || !queue.isEmpty()) {
+			try {
+				int maxSize = this.maxSize;
+				Map.Entry<String, String> first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				long windowEnd = System.nanoTime() + windowNanos;
+				while (batch.size() < maxSize) {
+					if (queue.drainTo(batch, maxSize - batch.size()) > 0) {
+						continue;
+					}
+					long remaining = windowEnd - System.nanoTime();
+					Map.Entry<String, String> next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+				flush(batch);
+			} catch (InterruptedException e) {
+				// shutdown(): drain what is left, then exit
+				running = false;
+			}
+		}
+		if (!batch.isEmpty()) {
+			flush(batch);
+		}
+	}
+
+	private void flush(List<Map.Entry<String, String>> batch) {
+		batches.increment();
+		batchedTasks.add(batch.size());
+		List<Map.Entry<String, String>> posted = new ArrayList<>(batch);
+		try {
+			callbacks.callWhenAvailable(() -> TimerManager.processBatch(posted));
+		} catch (InterruptedException e) {
+			// shutdown() while waiting for a permit: post the batch anyway rather than lose it
+			running = false;
+			TimerManager.processBatch(posted);
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		} finally {
+			batch.clear();
+		}
+	}
+
+	void reconfigure(int maxSize, long windowMillis) {
+		this.maxSize = maxSize;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+	}
+	
+	Map<String, Object> snapshot() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("callbackBatches", batches.sum());
+		stats.put("callbackBatchedTasks", batchedTasks.sum());
+		stats.put("callbackBatchQueued", queue.size());
+		return stats;
+	}
+
+	void shutdown() {
+		running = false;
+		flusher.interrupt();
+		try {
+			flusher.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package com.example.timer;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * CallbackClient: pooled, non-blocking HTTP client for the Mule callback endpoint.
+ *
+ * A single java.net.http.HttpClient is shared by every callback, so loopback
+ * connections are kept alive and reused instead of being opened and torn down
+ * per task. Requests are sent asynchronously and the response body is drained
+ * (a connection whose body is left unread cannot go back to the pool), so no
+ * callback thread waits on socket I/O.
+ *
+ * http.version selects HTTP_1_1 (default, keep-alive) or HTTP_2 (h2c upgrade on
+ * plain http endpoints, with a transparent fallback to HTTP/1.1).
+ */
+final class CallbackClient {
+
+	private static final byte[] EMPTY_JSON = "{}".getBytes(StandardCharsets.UTF_8);
+
+	private final HttpClient client;
+	// settings baked into the HttpClient, a reload that changes them needs a new client
+	private final Duration connectTimeout;
+	private final boolean http2;
+
+	CallbackClient(CallbackConfig config) {
+		this.connectTimeout = config.connectTimeout();
+		this.http2 = config.http2();
+		HttpClient.Version version = config.http2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1;
+		System.out.println("CallbackClient: Using Connect Timeout=" + (connectTimeout.isZero() ? "none" : connectTimeout.toMillis() + "ms") + ", version=" + version);
+		HttpClient.Builder builder = HttpClient.newBuilder()
+			.version(version)
+			.followRedirects(HttpClient.Redirect.NEVER);
+		if (!connectTimeout.isZero()) {
+			builder.connectTimeout(connectTimeout);
+		}
+		this.client = builder.build();
+	}
+
+	// true if this client was built with the connection settings of the given config
+	boolean matches(CallbackConfig config) {
+		return connectTimeout.equals(config.connectTimeout()) && http2 == config.http2();
+	}
+
+	/**
+	 * POSTs the payload to the configured endpoint with ?appid=<appId>.
+	 *
+	 * @return A future completing with the HTTP status code once the response body was read.
+	 */
+	CompletableFuture<Integer> post(String appId, String payloadJson) {
+		return post(appId, payloadJson == null ? null : payloadJson.getBytes(StandardCharsets.UTF_8));
+	}
+
+	// Byte variant: the UTF-8 payload is the request body as is, no copy.
+	CompletableFuture<Integer> post(String appId, byte[] payloadUtf8) {
+		// Endpoint and timeouts come from the compiled snapshot of 'config.properties'
+		return post(PropertyConfig.getCallbackConfig(), appId, payloadUtf8);
+	}
+
+	// Posts to the endpoint of the given settings, e.g. those of a named scheduler.
+	CompletableFuture<Integer> post(CallbackConfig config, String appId, byte[] payloadUtf8) {
+		byte[] body = payloadUtf8 == null ? EMPTY_JSON : payloadUtf8;
+		HttpRequest request = newRequest(URI.create(config.endpointPrefix() + URLEncoder.encode(appId, StandardCharsets.UTF_8)), config)
+			.POST(HttpRequest.BodyPublishers.ofByteArray(body))
+			.build();
+		return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+			.thenApply(HttpResponse::statusCode);
+	}
+
+	/**
+	 * POSTs a whole batch as one JSON array of {"appId": ..., "payload": ...} objects
+	 * to the batch endpoint (http.batchPath).
+	 *
+	 * @return A future completing with the HTTP status code once the response body was read.
+	 */
+	CompletableFuture<Integer> postBatch(List<Map.Entry<String, String>> batch) {
+		CallbackConfig config = PropertyConfig.getCallbackConfig();
+
+		HttpRequest request = newRequest(config.batchEndpoint(), config)
+			.POST(HttpRequest.BodyPublishers.ofByteArray(toJsonArray(batch)))
+			.build();
+		return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+			.thenApply(HttpResponse::statusCode);
+	}
+
+	// JSON request with the configured read timeout, if any
+	private static HttpRequest.Builder newRequest(URI uri, CallbackConfig config) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(uri).header("Content-Type", "application/json");
+		if (!config.readTimeout().isZero()) {
+			builder.timeout(config.readTimeout());
+		}
+		return builder;
+	}
+
+	// Valid JSON payloads are embedded as-is; anything else (truncated, plain text) is sent as a JSON
+	// string, so one bad payload cannot corrupt the array and fail the other appIds of the batch.
+	static byte[] toJsonArray(List<Map.Entry<String, String>> batch) {
+		StringBuilder json = new StringBuilder(batch.size() * 64);
+		json.append('[');
+		for (int i = 0; i < batch.size(); i++) {
+			Map.Entry<String, String> task = batch.get(i);
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("{\"appId\":");
+			appendJsonString(json, task.getKey());
+			json.append(",\"payload\":");
+			String payload = task.getValue();
+			if (payload == null || payload.trim().isEmpty()) {
+				json.append("{}");
+			} else if (JsonSyntax.isValue(payload)) {
+				json.append(payload);
+			} else {
+				appendJsonString(json, payload);
+			}
+			json.append('}');
+		}
+		json.append(']');
+		return json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void appendJsonString(StringBuilder json, String value) {
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					json.append("\\\"");
+					break;
+				case '\\':
+					json.append("\\\\");
+					break;
+				default:
+					if (c < 0x20) {
+						json.append(String.format("\\u%04x", (int) c));
+					} else {
+						json.append(c);
+					}
+			}
+		}
+		json.append('"');
+	}
+
+	/**
+	 * Minimal JSON syntax check (RFC 8259) for payloads embedded in a batch; it does not build anything.
+	 * Nesting deeper than MAX_DEPTH counts as invalid, the payload is then sent as a string.
+	 */
+	static final class JsonSyntax {
+
+		private static final int MAX_DEPTH = 256;
+
+		private final String text;
+		private int pos;
+
+		private JsonSyntax(String text) {
+			this.text = text;
+		}
+
+		static boolean isValue(String text) {
+			JsonSyntax parser = new JsonSyntax(text);
+			try {
+				parser.value(0);
+				parser.skipWhitespace();
+				return parser.pos == text.length();
+			} catch (IllegalArgumentException ex) {
+				return false;
+			}
+		}
+
+		private void value(int depth) {
+			if (depth > MAX_DEPTH) {
+				throw new IllegalArgumentException("too deep");
+			}
+			skipWhitespace();
+			char c = peek();
+			if (c == '{') {
+				pos++;
+				skipWhitespace();
+				if (peek() == '}') {
+					pos++;
+					return;
+				}
+				do {
+					skipWhitespace();
+					string();
+					skipWhitespace();
+					expect(':');
+					value(depth + 1);
+					skipWhitespace();
+				} while (next() == ',');
+				if (text.charAt(pos - 1) != '}') {
+					throw new IllegalArgumentException("expected }");
+				}
+			} else if (c == '[') {
+				pos++;
+				skipWhitespace();
+				if (peek() == ']') {
+					pos++;
+					return;
+				}
+				do {
+					value(depth + 1);
+					skipWhitespace();
+				} while (next() == ',');
+				if (text.charAt(pos - 1) != ']') {
+					throw new IllegalArgumentException("expected ]");
+				}
+			} else if (c == '"') {
+				string();
+			} else if (c == '-' || (c >= '0' && c <= '9')) {
+				number();
+			} else if (!literal("true") && !literal("false") && !literal("null")) {
+				throw new IllegalArgumentException("unexpected " + c);
+			}
+		}
+
+		private void string() {
+			expect('"');
+			while (true) {
+				char c = next();
+				if (c == '"') {
+					return;
+				}
+				if (c < 0x20) {
+					throw new IllegalArgumentException("control character in string");
+				}
+				if (c == '\\') {
+					char escape = next();
+					if (escape == 'u') {
+						for (int i = 0; i < 4; i++) {
+							// ASCII only: Character.digit would also take other scripts' digits
+							char hex = next();
+							if ((hex < '0' || hex > '9') && (hex < 'a' || hex > 'f') && (hex < 'A' || hex > 'F')) {
+								throw new IllegalArgumentException("bad unicode escape");
+							}
+						}
+					} else if ("\"\\/bfnrt".indexOf(escape) < 0) {
+						throw new IllegalArgumentException("bad escape");
+					}
+				}
+			}
+		}
+
+		private void number() {
+			if (peek() == '-') {
+				pos++;
+			}
+			if (peek() == '0') {
+				pos++;
+			} else {
+				digits();
+			}
+			if (pos < text.length() && text.charAt(pos) == '.') {
+				pos++;
+				digits();
+			}
+			if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+				pos++;
+				if (peek() == '+' || peek() == '-') {
+					pos++;
+				}
+				digits();
+			}
+		}
+
+		private void digits() {
+			int start = pos;
+			while (pos < text.length() && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+				pos++;
+			}
+			if (pos == start) {
+				throw new IllegalArgumentException("expected digit");
+			}
+		}
+
+		private boolean literal(String word) {
+			if (text.startsWith(word, pos)) {
+				pos += word.length();
+				return true;
+			}
+			return false;
+		}
+
+		private void skipWhitespace() {
+			while (pos < text.length()) {
+				char c = text.charAt(pos);
+				if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+					return;
+				}
+				pos++;
+			}
+		}
+
+		private void expect(char c) {
+			if (next() != c) {
+				throw new IllegalArgumentException("expected " + c);
+			}
+		}
+
+		private char peek() {
+			if (pos >= text.length()) {
+				throw new IllegalArgumentException("unexpected end");
+			}
+			return text.charAt(pos);
+		}
+
+		private char next() {
+			char c = peek();
+			pos++;
+			return c;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package com.example.timer;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.function.UnaryOperator;
+
+/**
+ * CallbackConfig: immutable, pre-validated snapshot of the callback settings.
+ *
+ * PropertyConfig builds it once from the loaded properties, so the callback hot
+ * path reads a single volatile reference instead of re-running Properties
+ * lookups, trims, number parsing and String.format for every fired task.
+ *
+ * A missing host/port/path does not fail the build of the snapshot: the error is
+ * kept and raised by {@link #endpointPrefix()}, at the same point where
+ * PropertyConfig.getMuleEndpointUrl() used to throw it.
+ */
+public final class CallbackConfig {
+
+    private final String endpointUrl;
+    // endpointUrl + "?appid=", only the encoded appId is appended per call
+    private final String endpointPrefix;
+    private final URI batchEndpoint;
+    private final String endpointError;
+    private final String batchEndpointError;
+
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final boolean http2;
+
+    private final String callbackMode;
+    private final int poolSize;
+    private final int queueCapacity;
+    private final int maxInFlight;
+    private final int retryDelayMillis;
+
+    private final boolean batchEnabled;
+    private final int batchMaxSize;
+    private final int batchWindowMillis;
+
+    private CallbackConfig(UnaryOperator<String> properties) {
+        String url = null;
+        String error = null;
+        try {
+            url = PropertyConfig.getMuleEndpointUrl(properties);
+            URI.create(url);
+        } catch (RuntimeException ex) {
+            error = ex.getMessage();
+        }
+        this.endpointUrl = url;
+        this.endpointPrefix = url == null ? null : url + "?appid=";
+        this.endpointError = error;
+
+        URI batchUri = null;
+        String batchError = null;
+        try {
+            batchUri = URI.create(PropertyConfig.getMuleBatchEndpointUrl(properties));
+        } catch (RuntimeException ex) {
+            batchError = ex.getMessage();
+        }
+        this.batchEndpoint = batchUri;
+        this.batchEndpointError = batchError;
+
+        // Default values: 5000ms for connection and 10000ms for read
+        this.connectTimeout = timeoutProperty(properties, "http.connectTimeout", 5000);
+        this.readTimeout = timeoutProperty(properties, "http.readTimeout", 10000);
+        this.http2 = "HTTP_2".equalsIgnoreCase(properties.apply("http.version"));
+
+        this.callbackMode = "virtual".equalsIgnoreCase(properties.apply("callback.mode")) ? "virtual" : "platform";
+        this.poolSize = Math.max(1, intProperty(properties, "callback.poolSize", 4));
+        this.queueCapacity = Math.max(1, intProperty(properties, "callback.queueCapacity", 10000));
+        this.maxInFlight = Math.max(1, intProperty(properties, "callback.maxInFlight", 10000));
+        this.retryDelayMillis = Math.max(1, intProperty(properties, "callback.retryDelayMs", 100));
+
+        this.batchEnabled = Boolean.parseBoolean(properties.apply("callback.batch.enabled"));
+        this.batchMaxSize = Math.max(1, intProperty(properties, "callback.batch.maxSize", 500));
+        this.batchWindowMillis = Math.max(0, intProperty(properties, "callback.batch.windowMs", 50));
+    }
+
+    private static int intProperty(UnaryOperator<String> properties, String key, int defaultValue) {
+        return PropertyConfig.toInt(key, properties.apply(key), defaultValue);
+    }
+
+    // 0 or less means no timeout, as it did for HttpURLConnection; HttpClient rejects such a Duration
+    private static Duration timeoutProperty(UnaryOperator<String> properties, String key, int defaultMillis) {
+        int millis = intProperty(properties, key, defaultMillis);
+        return millis > 0 ? Duration.ofMillis(millis) : Duration.ZERO;
+    }
+
+    // Reads the current properties; called by PropertyConfig whenever they are (re)loaded.
+    static CallbackConfig fromProperties() {
+        return new CallbackConfig(PropertyConfig::getProperty);
+    }
+
+    // Settings of a named scheduler: its scheduler.<name>.* properties over the shared ones.
+    static CallbackConfig forScheduler(String scheduler) {
+        return new CallbackConfig(key -> PropertyConfig.getSchedulerProperty(scheduler, key));
+    }
+
+    public String endpointUrl() {
+        if (endpointUrl == null) {
+            throw new IllegalStateException(endpointError);
+        }
+        return endpointUrl;
+    }
+
+    /**
+     * @return The per-task callback URL up to and including "?appid=".
+     * @throws IllegalStateException if host, port or path are missing.
+     */
+    public String endpointPrefix() {
+        if (endpointPrefix == null) {
+            throw new IllegalStateException(endpointError);
+        }
+        return endpointPrefix;
+    }
+
+    /**
+     * @return The batch callback URI (http.batchPath).
+     * @throws IllegalStateException if host, port or batchPath are missing.
+     */
+    public URI batchEndpoint() {
+        if (batchEndpoint == null) {
+            throw new IllegalStateException(batchEndpointError);
+        }
+        return batchEndpoint;
+    }
+
+    // Duration.ZERO: no connect timeout
+    public Duration connectTimeout() {
+        return connectTimeout;
+    }
+
+    // Duration.ZERO: no read timeout
+    public Duration readTimeout() {
+        return readTimeout;
+    }
+
+    public boolean http2() {
+        return http2;
+    }
+
+    public String callbackMode() {
+        return callbackMode;
+    }
+
+    public int poolSize() {
+        return poolSize;
+    }
+
+    public int queueCapacity() {
+        return queueCapacity;
+    }
+
+    public int maxInFlight() {
+        return maxInFlight;
+    }
+
+    public int retryDelayMillis() {
+        return retryDelayMillis;
+    }
+
+    public boolean batchEnabled() {
+        return batchEnabled;
+    }
+
+    public int batchMaxSize() {
+        return batchMaxSize;
+    }
+
+    public int batchWindowMillis() {
+        return batchWindowMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "CallbackConfig{endpoint=" + (endpointUrl != null ? endpointUrl : "<" + endpointError + ">")
+            + ", connectTimeout=" + describe(connectTimeout) + ", readTimeout=" + describe(readTimeout)
+            + ", http2=" + http2 + ", mode=" + callbackMode + ", poolSize=" + poolSize
+            + ", queueCapacity=" + queueCapacity + ", maxInFlight=" + maxInFlight
+            + ", batch=" + (batchEnabled ? batchMaxSize + "/" + batchWindowMillis + "ms" : "off") + "}";
+    }
+
+    private static String describe(Duration timeout) {
+        return timeout.isZero() ? "none" : timeout.toMillis() + "ms";
+    }
+}
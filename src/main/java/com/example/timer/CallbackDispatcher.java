@@ -0,0 +1,268 @@
+package com.example.timer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * CallbackDispatcher: bounded worker pool that runs processApp() for fired tasks.
+ *
+ * Timer threads (executor threads or wheel tickers) only decide that a task is
+ * due and hand it over here, so a slow callback endpoint can occupy callback
+ * threads but never delays other timers. The pool and its queue are bounded
+ * (callback.poolSize, callback.queueCapacity); when both are full the hand-off
+ * is refused and the shard retries the task after callback.retryDelayMs
+ * instead of blocking the timer thread.
+ *
+ * With callback.mode=virtual every fired task runs on its own virtual thread
+ * (JDK 21+), so thousands of blocking callbacks can be in flight without
+ * growing the platform thread count. Older JVMs fall back to the platform pool.
+ *
+ * In both modes callback.maxInFlight bounds the callbacks that have not
+ * completed yet. A callback that returns a future (the asynchronous HTTP post
+ * of Option B) keeps its permit until the future completes, not just until
+ * the callback thread returns, so a slow endpoint saturates the dispatcher and
+ * the shards retry instead of piling up outstanding requests.
+ *
+ * Callbacks run TimerManager.processApp() unless another Target is given
+ * (named schedulers post to their own endpoint).
+ *
+ * reconfigure() applies a reloaded CallbackConfig in place: pool size,
+ * maxInFlight and the retry delay change live, already queued callbacks are
+ * kept. Switching callback.mode or the queue capacity requires a restart.
+ */
+final class CallbackDispatcher {
+
+	private final AtomicInteger threadCounter = new AtomicInteger(0);
+	private final String threadName;
+	private final Target target;
+	private final ExecutorService executor;
+	// callbacks dispatched and not completed yet, bounded by callback.maxInFlight
+	private final ResizableSemaphore inFlight;
+	private volatile int maxInFlight;
+	private volatile long retryDelayNanos;
+	private final LongAdder rejected = new LongAdder();
+
+	CallbackDispatcher(CallbackConfig config) {
+		this(config, "TimerManager-callback", new Target() {
+			@Override
+			public CompletableFuture<?> process(String appId, String payloadJson) {
+				return TimerManager.processApp(appId, payloadJson);
+			}
+
+			@Override
+			public CompletableFuture<?> process(String appId, byte[] payloadUtf8) {
+				return TimerManager.processApp(appId, payloadUtf8);
+			}
+		});
+	}
+
+	CallbackDispatcher(CallbackConfig config, String threadName, Target target) {
+		this.threadName = threadName;
+		this.target = target;
+		int poolSize = config.poolSize();
+		int queueCapacity = config.queueCapacity();
+		int maxInFlight = config.maxInFlight();
+		ExecutorService virtualExecutor = "virtual".equals(config.callbackMode()) ? newVirtualThreadExecutor() : null;
+		if (virtualExecutor != null) {
+			System.out.println("CallbackDispatcher: running callbacks on virtual threads, maxInFlight=" + maxInFlight);
+			this.executor = virtualExecutor;
+		} else {
+			this.executor = newPlatformPool(poolSize, queueCapacity);
+		}
+		this.inFlight = new ResizableSemaphore(maxInFlight);
+		this.maxInFlight = maxInFlight;
+		this.retryDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.retryDelayMillis());
+	}
+
+	private ThreadPoolExecutor newPlatformPool(int poolSize, int queueCapacity) {
+		return new ThreadPoolExecutor(
+			poolSize,
+			poolSize,
+			60L, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<>(queueCapacity),
+			r -> {
+				Thread t = new Thread(r, threadName + "-" + threadCounter.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			},
+			new ThreadPoolExecutor.AbortPolicy()
+		);
+	}
+
+	// Executors.newVirtualThreadPerTaskExecutor() through reflection, the module is still compiled for JDK 17.
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException ex) {
+			System.err.println("CallbackDispatcher: virtual threads need JDK 21+ (running " + Runtime.version() + "), falling back to the platform pool");
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			System.err.println("CallbackDispatcher: virtual threads unavailable (" + ex + "), falling back to the platform pool");
+		}
+		return null;
+	}
+
+	/**
+	 * Hands a fired task to a callback thread.
+	 *
+	 * @return false if callback.maxInFlight callbacks are outstanding, or the pool and its queue are full
+	 *         (or shut down), and the task was not accepted.
+	 */
+	boolean dispatch(String appId, String payloadJson) {
+		// This is the processing call AFTER the delay.
+		return submit(() -> target.process(appId, payloadJson));
+	}
+
+	// Byte variant for tasks whose payload is held as UTF-8 bytes.
+	boolean dispatch(String appId, byte[] payloadUtf8) {
+		return submit(() -> target.process(appId, payloadUtf8));
+	}
+
+	private boolean submit(Supplier<CompletableFuture<?>> callback) {
+		if (!inFlight.tryAcquire()) {
+			rejected.increment();
+			return false;
+		}
+		try {
+			executor.execute(() -> {
+				CompletableFuture<?> pending = null;
+				try {
+					pending = callback.get();
+				} catch (Exception ex) {
+					ex.printStackTrace();
+				} finally {
+					// the permit stays taken until an asynchronous callback has completed
+					if (pending == null) {
+						inFlight.release();
+					} else {
+						pending.whenComplete((result, error) -> inFlight.release());
+					}
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException ex) {
+			inFlight.release();
+			rejected.increment();
+			return false;
+		}
+	}
+
+	/**
+	 * Runs an asynchronous callback on the calling thread once fewer than callback.maxInFlight
+	 * callbacks are outstanding, e.g. a batch post from the batcher thread. Like a dispatched
+	 * callback it holds its permit until the returned future completes.
+	 *
+	 * @throws InterruptedException if interrupted while waiting; the callback did not run.
+	 */
+	void callWhenAvailable(Supplier<CompletableFuture<?>> callback) throws InterruptedException {
+		inFlight.acquire();
+		CompletableFuture<?> pending = null;
+		try {
+			pending = callback.get();
+		} finally {
+			if (pending == null) {
+				inFlight.release();
+			} else {
+				pending.whenComplete((result, error) -> inFlight.release());
+			}
+		}
+	}
+
+	/**
+		 * Applies a reloaded configuration without dropping queued or running callbacks.
+	 */
+	synchronized void reconfigure(CallbackConfig config) {
+		retryDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.retryDelayMillis());
+		if (executor instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+			int poolSize = config.poolSize();
+			// keep core <= max at every step
+			if (poolSize > pool.getMaximumPoolSize()) {
+				pool.setMaximumPoolSize(poolSize);
+				pool.setCorePoolSize(poolSize);
+			} else {
+				pool.setCorePoolSize(poolSize);
+				pool.setMaximumPoolSize(poolSize);
+			}
+			int queueCapacity = pool.getQueue().size() + pool.getQueue().remainingCapacity();
+			if (config.queueCapacity() != queueCapacity) {
+				System.err.println("CallbackDispatcher: callback.queueCapacity=" + config.queueCapacity() + " takes effect after a restart");
+			}
+			if ("virtual".equals(config.callbackMode())) {
+				System.err.println("CallbackDispatcher: callback.mode=virtual takes effect after a restart");
+			}
+		} else if (!"virtual".equals(config.callbackMode())) {
+			System.err.println("CallbackDispatcher: callback.mode=platform takes effect after a restart");
+		}
+		int delta = config.maxInFlight() - maxInFlight;
+		if (delta > 0) {
+			inFlight.release(delta);
+		} else if (delta < 0) {
+			// outstanding callbacks keep their permits, new ones are refused until the count drops below the new limit
+			inFlight.reducePermits(-delta);
+		}
+		maxInFlight = config.maxInFlight();
+		System.out.println("CallbackDispatcher: reconfigured, maxInFlight=" + maxInFlight);
+	}
+	
+	long retryDelayNanos() {
+		return retryDelayNanos;
+	}
+
+	Map<String, Object> snapshot() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		if (executor instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+			stats.put("callbackMode", "platform");
+			stats.put("callbackPoolSize", pool.getMaximumPoolSize());
+			stats.put("callbackActive", pool.getActiveCount());
+			stats.put("callbackQueued", pool.getQueue().size());
+		} else {
+			stats.put("callbackMode", "virtual");
+		}
+		stats.put("callbackInFlight", maxInFlight - inFlight.availablePermits());
+		stats.put("callbackMaxInFlight", maxInFlight);
+		stats.put("callbackRejected", rejected.sum());
+		return stats;
+	}
+
+	void shutdown() {
+		ExecutorTimerEngine.shutdownGracefully(executor);
+	}
+	
+	/**
+	 * What a callback thread runs for a fired task: a future that completes when the callback
+	 * is done (e.g. the HTTP response arrived), or null if it was done synchronously.
+	 */
+	interface Target {
+
+		CompletableFuture<?> process(String appId, String payloadJson);
+
+		// task held as UTF-8 bytes (see TimerManager.processApp(String, byte[]))
+		CompletableFuture<?> process(String appId, byte[] payloadUtf8);
+	}
+
+	// Semaphore.reducePermits() is protected; it can take the count below zero, which is what a shrinking limit needs
+	private static final class ResizableSemaphore extends Semaphore {
+		private static final long serialVersionUID = 1L;
+		
+		ResizableSemaphore(int permits) {
+			super(permits);
+		}
+		
+		@Override
+		protected void reducePermits(int reduction) {
+			super.reducePermits(reduction);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.example.timer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ExecutorTimerEngine: TimerEngine backed by a ScheduledExecutorService.
+ *
+ * This is the original TimerManager behaviour: every timer is a
+ * ScheduledFutureTask in the executor's delay heap (O(log n) insert/cancel).
+ */
+final class ExecutorTimerEngine implements TimerEngine {
+
+	private final ScheduledExecutorService executor;
+
+	ExecutorTimerEngine(ScheduledExecutorService executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public Handle schedule(Runnable task, long delay, TimeUnit unit) {
+		return new FutureHandle(executor.schedule(task, delay, unit));
+	}
+
+	@Override
+	public void shutdown() {
+		shutdownGracefully(executor);
+	}
+
+	// Shared by the engines: give running tasks 5s to finish, then interrupt them.
+	static void shutdownGracefully(ExecutorService executor) {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static final class FutureHandle implements Handle {
+
+		private final ScheduledFuture<?> future;
+
+		FutureHandle(ScheduledFuture<?> future) {
+			this.future = future;
+		}
+
+		@Override
+		public boolean cancel() {
+			return future.cancel(false);
+		}
+
+		@Override
+		public boolean isDone() {
+			return future.isDone();
+		}
+	}
+}
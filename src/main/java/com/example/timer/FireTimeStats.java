@@ -0,0 +1,60 @@
+package com.example.timer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FireTimeStats: measures how late timers fire relative to their deadline.
+ *
+ * Every fired task records (actual fire time - deadline) on the monotonic clock.
+ * Firings later than the configured bound (timer.maxFireErrorMs) are counted
+ * and reported, at most once per second, so a saturated engine or an oversized
+ * wheel tick shows up in the logs.
+ */
+final class FireTimeStats {
+
+	private final long boundNanos;
+
+	private final LongAdder fired = new LongAdder();
+	private final LongAdder totalErrorNanos = new LongAdder();
+	private final AtomicLong maxErrorNanos = new AtomicLong();
+	private final LongAdder overBound = new LongAdder();
+	private final AtomicLong lastWarningNanos = new AtomicLong(System.nanoTime() - TimeUnit.SECONDS.toNanos(1));
+
+	FireTimeStats(long boundMillis) {
+		this.boundNanos = TimeUnit.MILLISECONDS.toNanos(boundMillis);
+	}
+
+	long boundMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(boundNanos);
+	}
+
+	void record(String appId, long errorNanos) {
+		fired.increment();
+		totalErrorNanos.add(Math.max(0L, errorNanos));
+		maxErrorNanos.accumulateAndGet(errorNanos, Math::max);
+		if (errorNanos > boundNanos) {
+			overBound.increment();
+			long now = System.nanoTime();
+			long last = lastWarningNanos.get();
+			if (now - last >= TimeUnit.SECONDS.toNanos(1) && lastWarningNanos.compareAndSet(last, now)) {
+				System.err.println("TimerManager: appId=" + appId + " fired " + TimeUnit.NANOSECONDS.toMillis(errorNanos)
+					+ "ms late (bound " + boundMillis() + "ms, " + overBound.sum() + " over bound so far)");
+			}
+		}
+	}
+
+	Map<String, Object> snapshot() {
+		long count = fired.sum();
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("fired", count);
+		stats.put("meanFireErrorMicros", count == 0 ? 0L : TimeUnit.NANOSECONDS.toMicros(totalErrorNanos.sum() / count));
+		stats.put("maxFireErrorMicros", TimeUnit.NANOSECONDS.toMicros(maxErrorNanos.get()));
+		stats.put("fireErrorBoundMs", boundMillis());
+		stats.put("firedOverBound", overBound.sum());
+		return stats;
+	}
+}
@@ -0,0 +1,133 @@
+package com.example.timer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HeapBudget: admission control for pending tasks.
+ *
+ * Keeps a live count of the pending tasks of all shards and of their payload
+ * size (characters, or bytes for byte payloads), and refuses schedules that
+ * would take them past the configured limits, so a producer burst is pushed
+ * back instead of growing the shard maps until the worker runs out of memory:
+ *
+ * - timer.limit.hardTasks / hardBytes: nothing is scheduled past these;
+ *   the schedule returns "rejected".
+ * - timer.limit.softTasks / softBytes: past these, new appIds are refused with
+ *   "throttled"; reschedules of pending appIds still go through (up to the
+ *   hard limits), so a producer updating its own tasks is not starved.
+ *
+ * 0 turns a limit off. A refused task is neither scheduled nor logged; the
+ * caller is expected to back off and retry. Tasks recovered from the WAL and
+ * callback retries are always taken back, since they were accepted before.
+ *
+ * Shards reserve a task's share inside compute() for its appId before the entry
+ * is installed and give it back inside the compute() that fires, cancels or
+ * replaces it, so the counters follow the shard maps. Reservations are
+ * optimistic (add, check, roll back), which keeps the counters striped like
+ * the shards; concurrent schedules may briefly see each other's rolled-back
+ * share and be refused a little early, never let through past a hard limit.
+ */
+final class HeapBudget {
+
+	static final String THROTTLED = "throttled";
+	static final String REJECTED = "rejected";
+
+	private final LongAdder pendingTasks = new LongAdder();
+	private final LongAdder pendingBytes = new LongAdder();
+	private final LongAdder throttled = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	// replaced as a whole on reload
+	private volatile Limits limits = new Limits(0L, 0L, 0L, 0L);
+
+	void reconfigure(long softTasks, long hardTasks, long softBytes, long hardBytes) {
+		limits = new Limits(softTasks, hardTasks, softBytes, hardBytes);
+	}
+
+	boolean isLimited() {
+		return limits.any();
+	}
+
+	/**
+		 * Reserves the share of a schedule: one more task if it is for a new appId, plus the
+		 * change in payload size (negative if a reschedule shrinks it).
+		 *
+		 * @return null if admitted, otherwise THROTTLED or REJECTED (nothing is reserved then).
+	 */
+	String admit(boolean newTask, long payloadDelta) {
+		Limits current = limits;
+		long taskDelta = newTask ? 1L : 0L;
+		add(taskDelta, payloadDelta);
+		if (!current.any()) {
+			return null;
+		}
+		long taskCount = pendingTasks.sum();
+		long byteCount = pendingBytes.sum();
+		String refusal = null;
+		if ((newTask && over(taskCount, current.hardTasks)) || (payloadDelta > 0 && over(byteCount, current.hardBytes))) {
+			refusal = REJECTED;
+			rejected.increment();
+		} else if (newTask && (over(taskCount, current.softTasks) || over(byteCount, current.softBytes))) {
+			refusal = THROTTLED;
+			throttled.increment();
+		}
+		if (refusal != null) {
+			add(-taskDelta, -payloadDelta);
+		}
+		return refusal;
+	}
+
+	// unconditional change, e.g. a fired or cancelled task (negative) or a recovered one
+	void add(long tasks, long payloadBytes) {
+		if (tasks != 0L) {
+			pendingTasks.add(tasks);
+		}
+		if (payloadBytes != 0L) {
+			pendingBytes.add(payloadBytes);
+		}
+	}
+
+	private static boolean over(long value, long limit) {
+		return limit > 0 && value > limit;
+	}
+
+	Map<String, Object> snapshot() {
+		Limits current = limits;
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("pendingPayloadBytes", pendingBytes.sum());
+		stats.put("limitSoftTasks", current.softTasks);
+		stats.put("limitHardTasks", current.hardTasks);
+		stats.put("limitSoftBytes", current.softBytes);
+		stats.put("limitHardBytes", current.hardBytes);
+		stats.put("throttledTasks", throttled.sum());
+		stats.put("rejectedTasks", rejected.sum());
+		return stats;
+	}
+
+	@Override
+	public String toString() {
+		Limits current = limits;
+		return "softTasks=" + current.softTasks + ", hardTasks=" + current.hardTasks
+			+ ", softBytes=" + current.softBytes + ", hardBytes=" + current.hardBytes;
+	}
+
+	private static final class Limits {
+		final long softTasks;
+		final long hardTasks;
+		final long softBytes;
+		final long hardBytes;
+
+		Limits(long softTasks, long hardTasks, long softBytes, long hardBytes) {
+			this.softTasks = softTasks;
+			this.hardTasks = hardTasks;
+			this.softBytes = softBytes;
+			this.hardBytes = hardBytes;
+		}
+
+		boolean any() {
+			return softTasks > 0 || hardTasks > 0 || softBytes > 0 || hardBytes > 0;
+		}
+	}
+}
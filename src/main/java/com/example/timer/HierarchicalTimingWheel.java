@@ -0,0 +1,276 @@
+package com.example.timer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * HierarchicalTimingWheel: TimerEngine with O(1) insert and cancel.
+ *
+ * Time is divided into ticks of {@code tickMillis}. Level 0 has one bucket per
+ * tick for the next {@code wheelSize} ticks; every level above it covers
+ * {@code wheelSize} times the span of the level below. When a higher-level
+ * bucket comes due its timers are cascaded down into the finer levels, so every
+ * timer is touched at most once per level instead of being sifted through a heap.
+ *
+ * Threading: callers only append to lock-free queues (schedule) or flip a state
+ * flag (cancel). A single ticker thread owns the buckets, applies queued
+ * additions/cancellations once per tick and runs expired tasks itself, so a
+ * timer fires at most one tick late and never early. Tasks must therefore be
+ * short; TimerManager's tasks only hand the work over to the callback pool.
+ */
+final class HierarchicalTimingWheel implements TimerEngine {
+
+	private final long tickNanos;
+	private final int bits;
+	private final int mask;
+	private final Bucket[][] levels;
+
+	private final Queue<Timeout> additions = new ConcurrentLinkedQueue<>();
+	private final Queue<Timeout> cancellations = new ConcurrentLinkedQueue<>();
+
+	private final long startNanos = System.nanoTime();
+	private final Thread ticker;
+	private volatile boolean running = true;
+
+	// only touched by the ticker thread
+	private long currentTick;
+
+	HierarchicalTimingWheel(long tickMillis, int wheelSize, String tickerName) {
+		if (tickMillis <= 0) {
+			throw new IllegalArgumentException("timer.wheel.tickMs must be positive");
+		}
+		if (wheelSize < 2) {
+			throw new IllegalArgumentException("timer.wheel.size must be at least 2");
+		}
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		// round the wheel up to a power of two so slots are picked with shifts and masks
+		this.bits = 32 - Integer.numberOfLeadingZeros(wheelSize - 1);
+		this.mask = (1 << bits) - 1;
+		// enough levels to cover any non-negative tick distance
+		int levelCount = (63 + bits - 1) / bits;
+		this.levels = new Bucket[levelCount][1 << bits];
+		for (Bucket[] level : levels) {
+			for (int i = 0; i < level.length; i++) {
+				level[i] = new Bucket();
+			}
+		}
+		this.ticker = new Thread(this::run, tickerName);
+		this.ticker.setDaemon(true);
+		this.ticker.start();
+	}
+
+	@Override
+	public Handle schedule(Runnable task, long delay, TimeUnit unit) {
+		Timeout timeout = new Timeout(this, task, System.nanoTime() + TimerEngine.delayNanos(delay, unit));
+		additions.add(timeout);
+		return timeout;
+	}
+
+	@Override
+	public void shutdown() {
+		running = false;
+		LockSupport.unpark(ticker);
+		try {
+			ticker.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void run() {
+		while (running) {
+			long sleepNanos = startNanos + (currentTick + 1) * tickNanos - System.nanoTime();
+			if (sleepNanos > 0) {
+				LockSupport.parkNanos(this, sleepNanos);
+				continue;
+			}
+			applyCancellations();
+			applyAdditions();
+			currentTick++;
+			cascade();
+			expire();
+		}
+	}
+
+	private void applyCancellations() {
+		Timeout timeout;
+		while ((timeout = cancellations.poll()) != null) {
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+	private void applyAdditions() {
+		Timeout timeout;
+		while ((timeout = additions.poll()) != null) {
+			if (timeout.state == Timeout.PENDING) {
+				place(timeout);
+			}
+		}
+	}
+
+	// Move every timer of each higher-level bucket that just came due one or more levels down.
+	private void cascade() {
+		for (int level = 1; level < levels.length; level++) {
+			int shift = bits * level;
+			if ((currentTick & ((1L << shift) - 1)) != 0) {
+				break;
+			}
+			Timeout timeout = levels[level][(int) ((currentTick >>> shift) & mask)].clear();
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				timeout.next = null;
+				if (timeout.state == Timeout.PENDING) {
+					place(timeout);
+				}
+				timeout = next;
+			}
+		}
+	}
+
+	private void expire() {
+		Timeout timeout = levels[0][(int) (currentTick & mask)].clear();
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			timeout.next = null;
+			if (timeout.state == Timeout.PENDING) {
+				place(timeout);
+			}
+			timeout = next;
+		}
+	}
+
+	private void place(Timeout timeout) {
+		long deadlineTick = deadlineTick(timeout.deadlineNanos);
+		long ticks = deadlineTick - currentTick;
+		if (ticks <= 0) {
+			fire(timeout);
+			return;
+		}
+		int level = 0;
+		while (level < levels.length - 1 && ticks >= (1L << (bits * (level + 1)))) {
+			level++;
+		}
+		levels[level][(int) ((deadlineTick >>> (bits * level)) & mask)].add(timeout);
+	}
+
+	// first tick boundary at or after the deadline, so timers never fire early
+	private long deadlineTick(long deadlineNanos) {
+		long elapsed = deadlineNanos - startNanos;
+		return elapsed <= 0 ? 0 : (elapsed + tickNanos - 1) / tickNanos;
+	}
+
+	private void fire(Timeout timeout) {
+		if (!timeout.expire()) {
+			return;
+		}
+		try {
+			timeout.task.run();
+		} catch (RuntimeException ex) {
+			// never let one task kill the ticker thread
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * A single armed timer. It is also the node of its bucket's intrusive list,
+	 * so arming a timer costs exactly one allocation besides the queue node.
+	 */
+	private static final class Timeout implements Handle {
+
+		static final int PENDING = 0;
+		static final int CANCELLED = 1;
+		static final int EXPIRED = 2;
+
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+			AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+		final HierarchicalTimingWheel wheel;
+		final Runnable task;
+		final long deadlineNanos;
+		volatile int state = PENDING;
+
+		// bucket links, ticker thread only
+		Bucket bucket;
+		Timeout prev;
+		Timeout next;
+
+		Timeout(HierarchicalTimingWheel wheel, Runnable task, long deadlineNanos) {
+			this.wheel = wheel;
+			this.task = task;
+			this.deadlineNanos = deadlineNanos;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+				return false;
+			}
+			// unlinked by the ticker thread on its next tick
+			wheel.cancellations.add(this);
+			return true;
+		}
+
+		@Override
+		public boolean isDone() {
+			return state != PENDING;
+		}
+
+		boolean expire() {
+			return STATE.compareAndSet(this, PENDING, EXPIRED);
+		}
+	}
+
+	/**
+	 * Doubly linked list of the timers sharing one slot.
+	 */
+	private static final class Bucket {
+
+		private Timeout head;
+		private Timeout tail;
+
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			timeout.prev = tail;
+			timeout.next = null;
+			if (tail == null) {
+				head = timeout;
+			} else {
+				tail.next = timeout;
+			}
+			tail = timeout;
+		}
+
+		void remove(Timeout timeout) {
+			if (timeout.prev == null) {
+				head = timeout.next;
+			} else {
+				timeout.prev.next = timeout.next;
+			}
+			if (timeout.next == null) {
+				tail = timeout.prev;
+			} else {
+				timeout.next.prev = timeout.prev;
+			}
+			timeout.bucket = null;
+			timeout.prev = null;
+			timeout.next = null;
+		}
+
+		// Detach the whole list; the caller walks it through the next links.
+		Timeout clear() {
+			Timeout first = head;
+			for (Timeout t = first; t != null; t = t.next) {
+				t.bucket = null;
+				t.prev = null;
+			}
+			head = null;
+			tail = null;
+			return first;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package com.example.timer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * MemoryPressure: spills far-future payloads to disk while old-gen is short.
+ *
+ * With timer.pressure.percent > 0, usage and collection-usage thresholds are set
+ * at that share of the old-gen pool (the one heap pool for single-generation
+ * collectors) and the JVM's memory notifications are watched. Once a threshold
+ * is crossed, the TierStore horizon shrinks to timer.pressure.horizonMs: every
+ * armed task due later than that hands its payload to the tier, farthest
+ * deadline first, and new tasks due later go there directly. Payloads that are
+ * off-heap or shared between appIds stay where they are.
+ *
+ * The pool is then checked every second, and spilling is repeated for tasks
+ * armed meanwhile. When the pool's usage after the last collection falls below
+ * timer.pressure.clearPercent, the tier horizon is restored and the tier
+ * promotes the spilled buckets back to the engine as usual. The gap between the
+ * two percentages keeps the promotion from tripping the threshold again.
+ *
+ * Checks and spills run on the "TimerManager-pressure" thread, never on the
+ * JMX notification thread.
+ */
+final class MemoryPressure implements NotificationListener {
+
+	private final MemoryPoolMXBean pool;
+	private final TierStore tier;
+	private final long thresholdBytes;
+	private final long clearBytes;
+	private final long horizonNanos;
+	private final ScheduledExecutorService worker;
+	// only changed on the worker thread
+	private volatile boolean active;
+
+	private final LongAdder episodes = new LongAdder();
+	private final LongAdder spilled = new LongAdder();
+
+	private MemoryPressure(MemoryPoolMXBean pool, TierStore tier, long thresholdBytes, long clearBytes, long horizonMillis) {
+		this.pool = pool;
+		this.tier = tier;
+		this.thresholdBytes = thresholdBytes;
+		this.clearBytes = clearBytes;
+		this.horizonNanos = TimeUnit.MILLISECONDS.toNanos(horizonMillis);
+		this.worker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "TimerManager-pressure");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+		 * Sets the thresholds on the old-gen pool and starts watching it.
+		 *
+		 * @return null if the JVM has no heap pool with usage thresholds, or its maximum size is undefined.
+	 */
+	static MemoryPressure start(int percent, int clearPercent, long horizonMillis, TierStore tier) {
+		MemoryPoolMXBean pool = oldGenPool();
+		long max = pool == null ? -1L : pool.getUsage().getMax();
+		if (max <= 0) {
+			System.err.println("MemoryPressure: no bounded old-gen pool with usage thresholds, memory-pressure spilling is off");
+			return null;
+		}
+		long thresholdBytes = max / 100 * percent;
+		MemoryPressure pressure = new MemoryPressure(pool, tier, thresholdBytes, max / 100 * Math.min(clearPercent, percent), horizonMillis);
+		pool.setUsageThreshold(thresholdBytes);
+		if (pool.isCollectionUsageThresholdSupported()) {
+			pool.setCollectionUsageThreshold(thresholdBytes);
+		}
+		((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(pressure, null, null);
+		pressure.worker.scheduleWithFixedDelay(pressure::recheck, 1, 1, TimeUnit.SECONDS);
+		System.out.println("MemoryPressure: watching " + pool.getName() + ", spilling tasks due beyond " + horizonMillis
+			+ "ms above " + percent + "% (" + thresholdBytes + " bytes) until below " + Math.min(clearPercent, percent) + "%");
+		return pressure;
+	}
+
+	// the old generation, or the single heap pool of collectors without generations (Eden and Survivor have no usage threshold)
+	private static MemoryPoolMXBean oldGenPool() {
+		MemoryPoolMXBean candidate = null;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP || !pool.isUsageThresholdSupported()) {
+				continue;
+			}
+			String name = pool.getName().toLowerCase(Locale.ROOT);
+			if (name.contains("old") || name.contains("tenured")) {
+				return pool;
+			}
+			candidate = pool;
+		}
+		return candidate;
+	}
+
+	@Override
+	public void handleNotification(Notification notification, Object handback) {
+		String type = notification.getType();
+		if (!MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)
+			&& !MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)) {
+			return;
+		}
+		worker.execute(this::enter);
+	}
+
+	private void enter() {
+		if (!active) {
+			active = true;
+			episodes.increment();
+			tier.constrain(horizonNanos);
+			System.out.println("MemoryPressure: " + pool.getName() + " above " + thresholdBytes + " bytes, spilling tasks due beyond "
+				+ TimeUnit.NANOSECONDS.toMillis(horizonNanos) + "ms to disk");
+		}
+		spill();
+	}
+
+	private void recheck() {
+		if (!active) {
+			return;
+		}
+		// live data after the last GC; garbage waiting for the next old collection does not count
+		MemoryUsage usage = pool.isCollectionUsageThresholdSupported() ? pool.getCollectionUsage() : pool.getUsage();
+		if (usage != null && usage.getUsed() < clearBytes) {
+			active = false;
+			tier.relax();
+			System.out.println("MemoryPressure: " + pool.getName() + " below " + clearBytes + " bytes, promoting spilled tasks back");
+			return;
+		}
+		spill();
+	}
+
+	private void spill() {
+		try {
+			spilled.add(TimerManager.spillFarthest(horizonNanos));
+		} catch (RuntimeException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	Map<String, Object> snapshot() {
+		MemoryUsage usage = pool.getUsage();
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("memoryPressure", active);
+		stats.put("memoryPressurePool", pool.getName());
+		stats.put("memoryPressureUsedBytes", usage.getUsed());
+		stats.put("memoryPressureThresholdBytes", thresholdBytes);
+		stats.put("memoryPressureEpisodes", episodes.sum());
+		stats.put("memoryPressureSpilled", spilled.sum());
+		return stats;
+	}
+
+	void shutdown() {
+		try {
+			((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(this);
+		} catch (ListenerNotFoundException ex) {
+			// not registered, nothing to remove
+		}
+		worker.shutdownNow();
+	}
+}
@@ -0,0 +1,151 @@
+package com.example.timer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PayloadArena: off-heap store for the payloads of pending tasks.
+ *
+ * With timer.arena.enabled=true each shard keeps the stored bytes (see
+ * PayloadCodec) of its armed tasks' payloads in direct ByteBuffer slabs (timer.arena.slabBytes each, up to
+ * timer.arena.maxBytes across all shards) instead of as java.lang.String, so
+ * large JSON bodies no longer fill old-gen and GC work stays independent of the
+ * payload volume. A payload lives in one block of a power-of-two size class
+ * (64 bytes and up), prefixed by its length; freed blocks go to a free list per
+ * size class and are reused before the slab bump pointer moves on.
+ *
+ * Blocks are addressed by a long handle (slab, offset, size class); 0 means "no
+ * block". When the arena is full or a payload is larger than the biggest size
+ * class, allocate() returns 0 and the caller keeps the String on the heap.
+ *
+ * Allocation is synchronized per arena (one per shard). Callers allocate, read
+ * and free a task's block while holding the shard map's lock for its appId, so
+ * a block is never read after it was freed and reused.
+ */
+final class PayloadArena {
+
+	private static final int MIN_CLASS = 6;
+	// 1 MB blocks at most, bigger payloads stay on the heap
+	private static final int MAX_CLASS = 20;
+	private static final int LENGTH_BYTES = 4;
+
+	private final int slabBytes;
+	private final int maxSlabs;
+	private final int maxClass;
+	// copied on growth so readers need no lock
+	private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+	// per size class: stack of free block handles
+	private final long[][] freeLists = new long[MAX_CLASS + 1][];
+	private final int[] freeCounts = new int[MAX_CLASS + 1];
+	private int bumpOffset;
+
+	private final LongAdder allocated = new LongAdder();
+	private final LongAdder usedBytes = new LongAdder();
+	private final LongAdder heapFallbacks = new LongAdder();
+
+	PayloadArena(int slabBytes, long maxBytes) {
+		this.slabBytes = Integer.highestOneBit(Math.max(slabBytes, 1 << MIN_CLASS));
+		this.maxSlabs = (int) Math.max(1L, Math.min(Integer.MAX_VALUE, maxBytes / this.slabBytes));
+		this.maxClass = Math.min(MAX_CLASS, Integer.numberOfTrailingZeros(this.slabBytes));
+		for (int i = MIN_CLASS; i <= MAX_CLASS; i++) {
+			freeLists[i] = new long[16];
+		}
+		// a fresh slab is allocated on first use
+		this.bumpOffset = this.slabBytes;
+	}
+
+	/**
+		 * Copies a packed payload into a free block.
+		 *
+		 * @return The block handle, or 0 if the payload has to stay on the heap (too large or arena full).
+	 */
+	long allocate(byte[] bytes) {
+		int sizeClass = sizeClass(bytes.length + LENGTH_BYTES);
+		long handle = sizeClass > maxClass ? 0L : take(sizeClass);
+		if (handle == 0L) {
+			heapFallbacks.increment();
+			return 0L;
+		}
+		ByteBuffer slab = slab(handle);
+		int offset = offset(handle);
+		slab.putInt(offset, bytes.length);
+		slab.put(offset + LENGTH_BYTES, bytes);
+		allocated.increment();
+		usedBytes.add(bytes.length);
+		return handle;
+	}
+
+	byte[] read(long handle) {
+		ByteBuffer slab = slab(handle);
+		int offset = offset(handle);
+		byte[] bytes = new byte[slab.getInt(offset)];
+		slab.get(offset + LENGTH_BYTES, bytes);
+		return bytes;
+	}
+
+	void free(long handle) {
+		usedBytes.add(-slab(handle).getInt(offset(handle)));
+		allocated.decrement();
+		int sizeClass = (int) (handle & 0xFF);
+		synchronized (this) {
+			long[] free = freeLists[sizeClass];
+			if (freeCounts[sizeClass] == free.length) {
+				free = freeLists[sizeClass] = Arrays.copyOf(free, free.length * 2);
+			}
+			free[freeCounts[sizeClass]++] = handle;
+		}
+	}
+
+	private synchronized long take(int sizeClass) {
+		if (freeCounts[sizeClass] > 0) {
+			return freeLists[sizeClass][--freeCounts[sizeClass]];
+		}
+		int blockBytes = 1 << sizeClass;
+		if (bumpOffset + blockBytes > slabBytes) {
+			if (slabs.length == maxSlabs) {
+				return 0L;
+			}
+			// blocks are power-of-two sized and aligned, so the rest of the old slab is exactly 0 bytes
+			ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+			grown[slabs.length] = ByteBuffer.allocateDirect(slabBytes);
+			slabs = grown;
+			bumpOffset = 0;
+		}
+		long handle = handle(slabs.length - 1, bumpOffset, sizeClass);
+		bumpOffset += blockBytes;
+		return handle;
+	}
+
+	private static int sizeClass(int bytes) {
+		return Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(bytes - 1));
+	}
+
+	// slab index in bits 40-62, offset in bits 8-39, size class in bits 0-7 (never 0, so neither is a handle)
+	private static long handle(int slab, int offset, int sizeClass) {
+		return ((long) slab << 40) | ((long) offset << 8) | sizeClass;
+	}
+
+	private ByteBuffer slab(long handle) {
+		return slabs[(int) (handle >>> 40)];
+	}
+
+	private static int offset(long handle) {
+		return (int) ((handle >>> 8) & 0xFFFFFFFFL);
+	}
+
+	// Adds this arena's counters to stats, summing with the other shards' arenas already in there.
+	void addStats(Map<String, Object> stats) {
+		int slabCount = slabs.length;
+		add(stats, "arenaSlabs", slabCount);
+		add(stats, "arenaReservedBytes", (long) slabCount * slabBytes);
+		add(stats, "arenaPayloads", allocated.sum());
+		add(stats, "arenaPayloadBytes", usedBytes.sum());
+		add(stats, "arenaHeapFallbacks", heapFallbacks.sum());
+	}
+
+	private static void add(Map<String, Object> stats, String name, long value) {
+		stats.merge(name, value, (a, b) -> (Long) a + (Long) b);
+	}
+}
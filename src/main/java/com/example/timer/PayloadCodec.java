@@ -0,0 +1,181 @@
+package com.example.timer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * PayloadCodec: stored form of pending payloads.
+ *
+ * A payload of at least timer.compress.minLength characters is deflated
+ * (timer.compress.level, fastest by default) when its task is armed, and only
+ * inflated again when it is needed: at fire time, by getPayload() or by a WAL
+ * snapshot. Payloads that do not shrink are kept as they are. Large, repetitive
+ * JSON bodies that sit untouched for the whole delay typically shrink several
+ * times over.
+ *
+ * The stored bytes start with a tag: RAW (UTF-8 follows) or DEFLATED (original
+ * length, then the deflate stream), so the off-heap arena can hold either form.
+ * Deflater and Inflater are kept per thread; both are costly to create.
+ */
+final class PayloadCodec {
+
+	private static final byte RAW = 0;
+	private static final byte DEFLATED = 1;
+	private static final int HEADER_BYTES = 5;
+
+	private final int minLength;
+	private final ThreadLocal<Deflater> deflaters;
+	// raw deflate streams (nowrap): the zlib header and checksum would only add bytes
+	private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+	private final LongAdder compressed = new LongAdder();
+	private final LongAdder incompressible = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder compressNanos = new LongAdder();
+	private final LongAdder decompressed = new LongAdder();
+	private final LongAdder decompressNanos = new LongAdder();
+
+	// minLength <= 0 turns compression off, pack() then only tags the UTF-8 bytes
+	PayloadCodec(int minLength, int level) {
+		this.minLength = minLength;
+		this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+	}
+
+	boolean isEnabled() {
+		return minLength > 0;
+	}
+
+	// true if pack() would try to deflate a payload of this length (characters, or bytes for byte payloads)
+	boolean shouldCompress(int length) {
+		return minLength > 0 && length >= minLength;
+	}
+
+	byte[] pack(String payloadJson) {
+		return pack(payloadJson.getBytes(StandardCharsets.UTF_8), payloadJson.length());
+	}
+
+	byte[] pack(byte[] utf8) {
+		return pack(utf8, utf8.length);
+	}
+
+	/**
+	 * Stored form of a payload: deflated if it is long enough and shrinks, tagged UTF-8 otherwise.
+	 */
+	private byte[] pack(byte[] utf8, int length) {
+		if (shouldCompress(length)) {
+			byte[] deflated = deflate(utf8);
+			if (deflated != null) {
+				return deflated;
+			}
+			incompressible.increment();
+		}
+		byte[] raw = new byte[utf8.length + 1];
+		raw[0] = RAW;
+		System.arraycopy(utf8, 0, raw, 1, utf8.length);
+		return raw;
+	}
+
+	static boolean isCompressed(byte[] packed) {
+		return packed[0] == DEFLATED;
+	}
+
+	private byte[] deflate(byte[] utf8) {
+		// no room for the header, let alone a saving (and a negative deflate length below)
+		if (utf8.length <= HEADER_BYTES) {
+			return null;
+		}
+		long start = System.nanoTime();
+		Deflater deflater = deflaters.get();
+		try {
+			deflater.setInput(utf8);
+			deflater.finish();
+			// not worth it unless it saves at least the header: output is capped at the input size
+			byte[] out = new byte[utf8.length];
+			int length = deflater.deflate(out, HEADER_BYTES, out.length - HEADER_BYTES);
+			if (!deflater.finished()) {
+				return null;
+			}
+			out[0] = DEFLATED;
+			out[1] = (byte) (utf8.length >>> 24);
+			out[2] = (byte) (utf8.length >>> 16);
+			out[3] = (byte) (utf8.length >>> 8);
+			out[4] = (byte) utf8.length;
+			byte[] packed = Arrays.copyOf(out, HEADER_BYTES + length);
+			compressed.increment();
+			bytesIn.add(utf8.length);
+			bytesOut.add(packed.length);
+			return packed;
+		} finally {
+			deflater.reset();
+			compressNanos.add(System.nanoTime() - start);
+		}
+	}
+
+	String unpack(byte[] packed) {
+		if (packed[0] == RAW) {
+			return new String(packed, 1, packed.length - 1, StandardCharsets.UTF_8);
+		}
+		return new String(inflate(packed), StandardCharsets.UTF_8);
+	}
+
+	// UTF-8 bytes of a packed payload, e.g. for the callback body
+	byte[] unpackBytes(byte[] packed) {
+		return packed[0] == RAW ? Arrays.copyOfRange(packed, 1, packed.length) : inflate(packed);
+	}
+
+	private byte[] inflate(byte[] packed) {
+		long start = System.nanoTime();
+		Inflater inflater = inflaters.get();
+		try {
+			int length = ((packed[1] & 0xFF) << 24) | ((packed[2] & 0xFF) << 16) | ((packed[3] & 0xFF) << 8) | (packed[4] & 0xFF);
+			byte[] utf8 = new byte[length];
+			inflater.setInput(packed, HEADER_BYTES, packed.length - HEADER_BYTES);
+			int read = 0;
+			while (read < length && !inflater.finished()) {
+				int n = inflater.inflate(utf8, read, length - read);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				read += n;
+			}
+			if (read != length) {
+				throw new IllegalStateException("truncated compressed payload: " + read + " of " + length + " bytes");
+			}
+			decompressed.increment();
+			return utf8;
+		} catch (DataFormatException ex) {
+			throw new IllegalStateException("corrupt compressed payload", ex);
+		} finally {
+			inflater.reset();
+			decompressNanos.add(System.nanoTime() - start);
+		}
+	}
+
+	Map<String, Object> snapshot() {
+		long in = bytesIn.sum();
+		long out = bytesOut.sum();
+		long count = compressed.sum();
+		long attempts = count + incompressible.sum();
+		long inflated = decompressed.sum();
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("compressMinLength", minLength);
+		stats.put("compressedPayloads", count);
+		stats.put("incompressiblePayloads", attempts - count);
+		stats.put("compressedBytesIn", in);
+		stats.put("compressedBytesOut", out);
+		stats.put("compressionRatio", out == 0 ? 0.0 : Math.round(100.0 * in / out) / 100.0);
+		stats.put("compressMicros", TimeUnit.NANOSECONDS.toMicros(compressNanos.sum()));
+		stats.put("meanCompressMicros", attempts == 0 ? 0L : TimeUnit.NANOSECONDS.toMicros(compressNanos.sum() / attempts));
+		stats.put("decompressedPayloads", inflated);
+		stats.put("meanDecompressMicros", inflated == 0 ? 0L : TimeUnit.NANOSECONDS.toMicros(decompressNanos.sum() / inflated));
+		return stats;
+	}
+}
@@ -0,0 +1,158 @@
+package com.example.timer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PayloadDedup: content-addressed store for payloads shared by many appIds.
+ *
+ * With timer.dedup.minLength > 0, every armed payload of at least that many
+ * characters is looked up by the SHA-256 of its UTF-8 bytes. The first task
+ * with a given payload stores one copy (compressed by the PayloadCodec if it
+ * is long enough); every further task with the same bytes only takes a
+ * reference to it. The copy is dropped when the last referencing task fires,
+ * is cancelled or is rescheduled with another payload, so a fan-out of one
+ * templated notification to thousands of appIds costs one payload, not
+ * thousands.
+ *
+ * The store is shared by all shards (a fan-out spreads over all of them).
+ * Reference counts only change inside the store map's compute() for the
+ * digest, so a copy is never handed out after its last release.
+ */
+final class PayloadDedup {
+
+	private final int minLength;
+	private final PayloadCodec codec;
+	private final ConcurrentHashMap<Digest, Shared> shared = new ConcurrentHashMap<>();
+	private final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(PayloadDedup::newDigest);
+
+	private final LongAdder references = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder savedBytes = new LongAdder();
+
+	PayloadDedup(int minLength, PayloadCodec codec) {
+		this.minLength = minLength;
+		this.codec = codec;
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			// every JRE must provide SHA-256
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	// payload length in characters, or bytes for byte payloads
+	boolean accepts(int length) {
+		return length >= minLength;
+	}
+
+	/**
+	 * Takes a reference to the stored copy of this payload, storing it first if it is new.
+	 * Every call must be paired with one release().
+	 */
+	Shared acquire(String payloadJson) {
+		return acquire(payloadJson.getBytes(StandardCharsets.UTF_8));
+	}
+
+	Shared acquire(byte[] utf8) {
+		Digest key = new Digest(sha256.get().digest(utf8));
+		Shared copy = shared.compute(key, (digest, existing) -> {
+			if (existing == null) {
+				return new Shared(digest, codec.pack(utf8), utf8.length);
+			}
+			existing.refs++;
+			hits.increment();
+			savedBytes.add(existing.length);
+			return existing;
+		});
+		references.increment();
+		return copy;
+	}
+
+	void release(Shared copy) {
+		shared.computeIfPresent(copy.key, (digest, existing) -> {
+			if (--existing.refs == 0) {
+				return null;
+			}
+			savedBytes.add(-existing.length);
+			return existing;
+		});
+		references.decrement();
+	}
+
+	// the stored copy is immutable, so it is read without the store's lock
+	String read(Shared copy) {
+		return codec.unpack(copy.packed);
+	}
+
+	byte[] readBytes(Shared copy) {
+		return codec.unpackBytes(copy.packed);
+	}
+
+	Map<String, Object> snapshot() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("dedupMinLength", minLength);
+		stats.put("dedupDistinct", shared.size());
+		stats.put("dedupReferences", references.sum());
+		stats.put("dedupHits", hits.sum());
+		stats.put("dedupSavedBytes", savedBytes.sum());
+		return stats;
+	}
+
+	/**
+	 * One stored payload and the number of pending tasks referencing it.
+	 */
+	static final class Shared {
+		final Digest key;
+		// PayloadCodec form: deflated if long enough to be worth it, tagged UTF-8 otherwise
+		final byte[] packed;
+		final int length;
+		// only changed inside compute() for key
+		int refs = 1;
+
+		Shared(Digest key, byte[] packed, int length) {
+			this.key = key;
+			this.packed = packed;
+			this.length = length;
+		}
+	}
+
+	// first 128 bits of the SHA-256, plenty to tell payloads apart
+	private static final class Digest {
+		private final long high;
+		private final long low;
+
+		Digest(byte[] sha256) {
+			long h = 0;
+			long l = 0;
+			for (int i = 0; i < 8; i++) {
+				h = (h << 8) | (sha256[i] & 0xFF);
+				l = (l << 8) | (sha256[i + 8] & 0xFF);
+			}
+			this.high = h;
+			this.low = l;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Digest)) {
+				return false;
+			}
+			Digest digest = (Digest) other;
+			return high == digest.high && low == digest.low;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (low ^ (low >>> 32));
+		}
+	}
+}
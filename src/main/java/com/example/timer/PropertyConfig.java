@@ -1,117 +1,307 @@
-package com.example.timer;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Properties;
-import java.util.Optional;
-
-/**
- * PropertyConfig: Loads configuration properties from the classpath
- * (e.g., from 'config.properties' or '[env]-config.properties').
- *
- * This utility mimics environment-specific property loading often found
- * in Mule applications, allowing the TimerManager to dynamically
- * determine the target endpoint URL and connection settings.
- */
-public class PropertyConfig {
-
-    private static final Properties PROPERTIES = new Properties();
-    // Default file name used if no system property is set.
-    private static final String DEFAULT_CONFIG_FILE = "config.properties";
-
-    static {
-        // Check for the 'mule.env' system property to determine the environment configuration file.
-        // E.g., setting -Dmule.env=dev will load "dev-config.properties".
-        String env = System.getProperty("mule.env");
-        String configFileName;
-        
-        if (env != null && !env.trim().isEmpty()) {
-            // Construct the environment-specific filename (e.g., "dev-config.properties")
-            // Note: The structure assumes .properties files as per the usage of java.util.Properties
-            configFileName = env.trim().toLowerCase() + "-config.properties";
-        } else {
-            configFileName = DEFAULT_CONFIG_FILE;
-        }
-
-        System.out.println("PropertyConfig: Attempting to load config file: " + configFileName);
-
-        // Load the determined properties file
-        try (InputStream input = PropertyConfig.class.getClassLoader().getResourceAsStream(configFileName)) {
-            if (input == null) {
-                System.err.println("FATAL: Could not find configuration file '" + configFileName + "' on the classpath.");
-                // If config file is missing, the PROPERTIES map will remain empty,
-                // and defaults will be used for endpoint parts (empty string) and timeouts (hardcoded).
-            } else {
-                PROPERTIES.load(input);
-                System.out.println("PropertyConfig: Successfully loaded properties from " + configFileName);
-            }
-        } catch (IOException ex) {
-            System.err.println("PropertyConfig: Error loading properties: " + ex.getMessage());
-            ex.printStackTrace();
-        }
-    }
-
-    /**
-     * Gets a property value as a String.
-     *
-     * @param key The property key (e.g., "http.host").
-     * @return The property value, or an empty string if not found.
-     */
-    public static String getProperty(String key) {
-        // Get property, trimming to remove potential whitespace, and providing
-        // an empty string as a default if the property is not found.
-        return PROPERTIES.getProperty(key, "").trim();
-    }
-    
-    /**
-     * Gets a property value as an integer, using a default value if the property 
-     * is missing or not a valid number.
-     *
-     * @param key The property key (e.g., "http.connectTimeout").
-     * @param defaultValue The value to return if the property is missing or invalid.
-     * @return The property value as an int.
-     */
-    public static int getIntProperty(String key, int defaultValue) {
-        String value = getProperty(key);
-        if (value.isEmpty()) {
-            return defaultValue;
-        }
-        try {
-            return Integer.parseInt(value);
-        } catch (NumberFormatException e) {
-            System.err.println("Warning: Property '" + key + "' has an invalid format. Using default value " + defaultValue);
-            return defaultValue;
-        }
-    }
-
-    /**
-     * Dynamically builds the complete HTTP endpoint URL using the configured properties.
-     * The format is: http://[host]:[port][basepath][path]
-     *
-     * It handles the optional basepath gracefully.
-     *
-     * @return The constructed full URL string.
-     */
-    public static String getMuleEndpointUrl() {
-        String protocal = getProperty("http.protocal");
-        String host = getProperty("http.host");
-        String port = getProperty("http.port");
-        String basepath = getProperty("http.basepath");
-        String path = getProperty("http.path");
-
-        // The exception message is updated to guide the user to check config file loading.
-        if (host.isEmpty() || port.isEmpty() || path.isEmpty()) {
-            throw new IllegalStateException("Missing required HTTP properties: host, port, or path. Check if your config file loaded correctly.");
-        }
-
-        // Handle basepath: only include it if it exists and is not empty
-        String finalBasepath = Optional.ofNullable(basepath)
-                .filter(s -> !s.isEmpty())
-                .orElse(""); // defaults to empty string if missing
-
-        // Build the URL string.
-        String baseUrl = String.format("%s://%s:%s%s%s",protocal, host, port, finalBasepath, path);
-
-        return baseUrl;
-    }
+package com.example.timer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Properties;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * PropertyConfig: Loads configuration properties from the classpath
+ * (e.g., from 'config.properties' or '[env]-config.properties').
+ *
+ * This utility mimics environment-specific property loading often found
+ * in Mule applications, allowing the TimerManager to dynamically
+ * determine the target endpoint URL and connection settings.
+ *
+ * Properties can be reloaded at runtime (reload(), the /api/admin/reload flow,
+ * or by editing the file named by -Dmule.config.override, which is watched).
+ */
+public class PropertyConfig {
+
+    // Current properties; replaced as a whole on reload so readers never see a half-loaded set.
+    private static volatile Properties properties = new Properties();
+    // Compiled callback settings, rebuilt whenever the properties are loaded.
+    private static volatile CallbackConfig callbackConfig;
+    // Default file name used if no system property is set.
+    private static final String DEFAULT_CONFIG_FILE = "config.properties";
+    // Optional external file whose properties override the classpath ones and are watched for changes.
+    private static final String OVERRIDE_FILE_PROPERTY = "mule.config.override";
+
+    private static final List<Consumer<CallbackConfig>> RELOAD_LISTENERS = new CopyOnWriteArrayList<>();
+
+    static {
+        properties = loadProperties();
+        callbackConfig = CallbackConfig.fromProperties();
+        System.out.println("PropertyConfig: " + callbackConfig);
+        startOverrideWatcher();
+    }
+
+    private static Properties loadProperties() {
+        Properties loaded = new Properties();
+
+        // Check for the 'mule.env' system property to determine the environment configuration file.
+        // E.g., setting -Dmule.env=dev will load "dev-config.properties".
+        String env = System.getProperty("mule.env");
+        String configFileName;
+        
+        if (env != null && !env.trim().isEmpty()) {
+            // Construct the environment-specific filename (e.g., "dev-config.properties")
+            // Note: The structure assumes .properties files as per the usage of java.util.Properties
+            configFileName = env.trim().toLowerCase() + "-config.properties";
+        } else {
+            configFileName = DEFAULT_CONFIG_FILE;
+        }
+
+        System.out.println("PropertyConfig: Attempting to load config file: " + configFileName);
+
+        // Load the determined properties file
+        try (InputStream input = PropertyConfig.class.getClassLoader().getResourceAsStream(configFileName)) {
+            if (input == null) {
+                System.err.println("FATAL: Could not find configuration file '" + configFileName + "' on the classpath.");
+                // If config file is missing, the properties map will remain empty,
+                // and defaults will be used for endpoint parts (empty string) and timeouts (hardcoded).
+            } else {
+                loaded.load(input);
+                System.out.println("PropertyConfig: Successfully loaded properties from " + configFileName);
+            }
+        } catch (IOException ex) {
+            System.err.println("PropertyConfig: Error loading properties: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+
+        // Layer the external override file (e.g. -Dmule.config.override=/opt/mule/conf/timer.properties) on top
+        Path overrideFile = overrideFile();
+        if (overrideFile != null && Files.isReadable(overrideFile)) {
+            try (InputStream input = Files.newInputStream(overrideFile)) {
+                loaded.load(input);
+                System.out.println("PropertyConfig: Applied overrides from " + overrideFile);
+            } catch (IOException ex) {
+                System.err.println("PropertyConfig: Error loading override file " + overrideFile + ": " + ex.getMessage());
+            }
+        }
+        return loaded;
+    }
+
+    private static Path overrideFile() {
+        String file = System.getProperty(OVERRIDE_FILE_PROPERTY, "").trim();
+        return file.isEmpty() ? null : Paths.get(file).toAbsolutePath();
+    }
+
+    /**
+     * Reloads the classpath and override properties and atomically swaps in the new
+     * values and a new CallbackConfig, then notifies the reload listeners (TimerManager
+     * resizes its pools and HTTP client). Pending timers are not touched.
+     *
+     * @return The new callback configuration.
+     */
+    public static synchronized CallbackConfig reload() {
+        properties = loadProperties();
+        CallbackConfig reloaded = CallbackConfig.fromProperties();
+        callbackConfig = reloaded;
+        System.out.println("PropertyConfig: Reloaded " + reloaded);
+        for (Consumer<CallbackConfig> listener : RELOAD_LISTENERS) {
+            try {
+                listener.accept(reloaded);
+            } catch (RuntimeException ex) {
+                System.err.println("PropertyConfig: Reload listener failed: " + ex);
+                ex.printStackTrace();
+            }
+        }
+        return reloaded;
+    }
+
+    // Registers a callback invoked after every successful reload().
+    static void addReloadListener(Consumer<CallbackConfig> listener) {
+        RELOAD_LISTENERS.add(listener);
+    }
+
+    // Watch the override file's directory and reload whenever the file is written.
+    private static void startOverrideWatcher() {
+        Path overrideFile = overrideFile();
+        if (overrideFile == null || overrideFile.getParent() == null) {
+            return;
+        }
+        Thread watcher = new Thread(() -> {
+            try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+                overrideFile.getParent().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                System.out.println("PropertyConfig: Watching " + overrideFile + " for changes");
+                while (!Thread.currentThread().isInterrupted()) {
+                    WatchKey key = watchService.take();
+                    boolean changed = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= overrideFile.getFileName().equals(event.context());
+                    }
+                    key.reset();
+                    if (changed) {
+                        // let the writer finish before reading the file, one reload per burst of events
+                        Thread.sleep(200);
+                        WatchKey pending;
+                        while ((pending = watchService.poll()) != null) {
+                            pending.pollEvents();
+                            pending.reset();
+                        }
+                        reload();
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (IOException ex) {
+                System.err.println("PropertyConfig: Cannot watch " + overrideFile + ": " + ex.getMessage());
+            }
+        }, "PropertyConfig-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Gets the compiled callback settings (endpoint, timeouts, pool and batch sizes).
+     *
+     * The snapshot is parsed and validated once when the properties are loaded, so the
+     * callback hot path pays a single volatile read instead of per-call lookups and parsing.
+     *
+     * @return The current immutable callback configuration.
+     */
+    public static CallbackConfig getCallbackConfig() {
+        return callbackConfig;
+    }
+
+    /**
+     * Gets a property value as a String.
+     *
+     * @param key The property key (e.g., "http.host").
+     * @return The property value, or an empty string if not found.
+     */
+    public static String getProperty(String key) {
+        // Get property, trimming to remove potential whitespace, and providing
+        // an empty string as a default if the property is not found.
+        return properties.getProperty(key, "").trim();
+    }
+    
+    /**
+     * Gets a property value as an integer, using a default value if the property 
+     * is missing or not a valid number.
+     *
+     * @param key The property key (e.g., "http.connectTimeout").
+     * @param defaultValue The value to return if the property is missing or invalid.
+     * @return The property value as an int.
+     */
+    public static int getIntProperty(String key, int defaultValue) {
+        return toInt(key, getProperty(key), defaultValue);
+    }
+
+    // Parses an int property value looked up elsewhere (e.g. a named scheduler's), same rules as getIntProperty().
+    static int toInt(String key, String value, int defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Warning: Property '" + key + "' has an invalid format. Using default value " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets a property value for a named scheduler (see TimerManager.scheduleNamed()):
+     * "scheduler.[name].[key]" if it is set, otherwise the shared "[key]".
+     *
+     * @param scheduler The scheduler name (e.g., "notifications").
+     * @param key The property key (e.g., "callback.poolSize").
+     * @return The property value, or an empty string if neither is set.
+     */
+    public static String getSchedulerProperty(String scheduler, String key) {
+        String value = getProperty("scheduler." + scheduler + "." + key);
+        return value.isEmpty() ? getProperty(key) : value;
+    }
+
+    /**
+     * Gets a property value as a long, for sizes that can exceed an int (e.g., byte budgets).
+     *
+     * @param key The property key (e.g., "timer.arena.maxBytes").
+     * @param defaultValue The value to return if the property is missing or invalid.
+     * @return The property value as a long.
+     */
+    public static long getLongProperty(String key, long defaultValue) {
+        return toLong(key, getProperty(key), defaultValue);
+    }
+
+    static long toLong(String key, String value, long defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Warning: Property '" + key + "' has an invalid format. Using default value " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Dynamically builds the complete HTTP endpoint URL using the configured properties.
+     * The format is: http://[host]:[port][basepath][path]
+     *
+     * It handles the optional basepath gracefully.
+     *
+     * @return The constructed full URL string.
+     */
+    public static String getMuleEndpointUrl() {
+        return buildEndpointUrl(PropertyConfig::getProperty, "http.path");
+    }
+
+    // Same URL from another property lookup, e.g. a named scheduler's own http.* settings.
+    static String getMuleEndpointUrl(UnaryOperator<String> lookup) {
+        return buildEndpointUrl(lookup, "http.path");
+    }
+
+    /**
+     * Builds the URL batched callbacks are posted to (see CallbackBatcher).
+     * The format is: http://[host]:[port][basepath][batchPath]
+     *
+     * @return The constructed full URL string.
+     */
+    public static String getMuleBatchEndpointUrl() {
+        return buildEndpointUrl(PropertyConfig::getProperty, "http.batchPath");
+    }
+
+    static String getMuleBatchEndpointUrl(UnaryOperator<String> lookup) {
+        return buildEndpointUrl(lookup, "http.batchPath");
+    }
+
+    private static String buildEndpointUrl(UnaryOperator<String> lookup, String pathKey) {
+        String protocal = lookup.apply("http.protocal");
+        String host = lookup.apply("http.host");
+        String port = lookup.apply("http.port");
+        String basepath = lookup.apply("http.basepath");
+        String path = lookup.apply(pathKey);
+
+        // The exception message is updated to guide the user to check config file loading.
+        if (host.isEmpty() || port.isEmpty() || path.isEmpty()) {
+            throw new IllegalStateException("Missing required HTTP properties: host, port, or " + pathKey + ". Check if your config file loaded correctly.");
+        }
+
+        // Handle basepath: only include it if it exists and is not empty
+        String finalBasepath = Optional.ofNullable(basepath)
+                .filter(s -> !s.isEmpty())
+                .orElse(""); // defaults to empty string if missing
+
+        // Build the URL string.
+        String baseUrl = String.format("%s://%s:%s%s%s",protocal, host, port, finalBasepath, path);
+
+        return baseUrl;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,274 @@
+package com.example.timer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Scheduler: a named scheduler instance next to TimerManager's default one.
+ *
+ * timer.schedulers lists the names (e.g. "notifications,retries"); each one is
+ * started on first use and gets its own shards and timer engine, callback pool
+ * and HTTP client, fire-time stats and HeapBudget, so a burst or a slow endpoint
+ * in one workload does not delay or throttle the others. Every setting is read
+ * as scheduler.[name].[key] first and falls back to the shared [key] (see
+ * PropertyConfig.getSchedulerProperty()): timer.engine and its settings,
+ * timer.shards (default 1), timer.shard.threads, timer.reschedule,
+ * timer.defaultDelayMs, timer.maxFireErrorMs, timer.limit.*, callback.* and
+ * http.*, so each scheduler can post to its own path or host.
+ *
+ * Named schedulers keep their tasks in memory only: the write-ahead log, disk
+ * tier, off-heap arena and callback batching stay with the default scheduler.
+ * Payload compression and dedup are shared with it. Limits and callback settings
+ * follow reloads; engine, shard and delay settings need a restart.
+ *
+ * Mule reaches them through TimerManager.scheduleNamed() and its siblings.
+ */
+final class Scheduler implements SchedulerShard.Owner {
+
+	// started schedulers by name
+	private static final ConcurrentHashMap<String, Scheduler> running = new ConcurrentHashMap<>();
+	// set by shutdownAll(): no scheduler is started after that
+	private static volatile boolean shutdown;
+
+	static {
+		PropertyConfig.addReloadListener(config -> running.values().forEach(Scheduler::applyConfig));
+	}
+
+	private final String name;
+	private final String label;
+	// scheduler.<name>.<key>, falling back to <key>
+	private final UnaryOperator<String> properties;
+	private final long defaultDelayMillis;
+	private final FireTimeStats fireStats;
+	private final HeapBudget budget = new HeapBudget();
+	private volatile CallbackConfig config;
+	private volatile CallbackClient client;
+	private final CallbackDispatcher callbacks;
+	private final SchedulerShard[] shards;
+
+	private Scheduler(String name) {
+		this.name = name;
+		this.label = "Scheduler[" + name + "]";
+		this.properties = key -> PropertyConfig.getSchedulerProperty(name, key);
+		this.defaultDelayMillis = intProperty("timer.defaultDelayMs", 53000);
+		this.fireStats = new FireTimeStats(intProperty("timer.maxFireErrorMs", 50));
+		TimerManager.configureBudget(budget, properties, label);
+		this.config = CallbackConfig.forScheduler(name);
+		this.client = new CallbackClient(config);
+		this.callbacks = new CallbackDispatcher(config, "Scheduler-" + name + "-callback", new CallbackDispatcher.Target() {
+			@Override
+			public CompletableFuture<?> process(String appId, String payloadJson) {
+				return processApp(appId, payloadJson == null ? null : payloadJson.getBytes(StandardCharsets.UTF_8));
+			}
+
+			@Override
+			public CompletableFuture<?> process(String appId, byte[] payloadUtf8) {
+				return processApp(appId, payloadUtf8);
+			}
+		});
+		this.shards = createShards();
+	}
+
+	/**
+		 * The named scheduler, started on first use.
+		 *
+		 * @throws IllegalArgumentException if name is null or empty, or not listed in timer.schedulers.
+		 * @throws IllegalStateException after shutdownAll().
+	 */
+	static Scheduler named(String name) {
+		if (name == null || name.trim().isEmpty()) {
+			throw new IllegalArgumentException("scheduler is required");
+		}
+		requireRunning();
+		Scheduler scheduler = running.get(name);
+		if (scheduler != null) {
+			return scheduler;
+		}
+		// re-read on every miss, so a name added by a reload can be started without a restart
+		if (!configuredNames().contains(name)) {
+			throw new IllegalArgumentException("scheduler '" + name + "' is not listed in timer.schedulers");
+		}
+		scheduler = running.computeIfAbsent(name, Scheduler::new);
+		if (shutdown) {
+			// started while shutdownAll() was draining the map: stop it here
+			if (running.remove(name, scheduler)) {
+				scheduler.shutdown();
+			}
+			requireRunning();
+		}
+		return scheduler;
+	}
+
+	private static void requireRunning() {
+		if (shutdown) {
+			throw new IllegalStateException("schedulers are shut down");
+		}
+	}
+
+	private static List<String> configuredNames() {
+		List<String> names = new ArrayList<>();
+		for (String name : PropertyConfig.getProperty("timer.schedulers").split(",")) {
+			if (!name.trim().isEmpty()) {
+				names.add(name.trim());
+			}
+		}
+		return names;
+	}
+
+	// names of the started schedulers, sorted
+	static List<String> names() {
+		return new ArrayList<>(new TreeSet<>(running.keySet()));
+	}
+
+	static void shutdownAll() {
+		shutdown = true;
+		for (String name : names()) {
+			Scheduler scheduler = running.remove(name);
+			if (scheduler != null) {
+				scheduler.shutdown();
+			}
+		}
+	}
+
+	long defaultDelayMillis() {
+		return defaultDelayMillis;
+	}
+
+	// Same contract as TimerManager.schedule(String, String, long, TimeUnit), against this scheduler's limits.
+	String schedule(String appId, String payloadJson, long delay, TimeUnit unit) {
+		requireAppId(appId);
+		long now = System.nanoTime();
+		return shardFor(appId).schedule(appId, payloadJson, now + TimerEngine.delayNanos(delay, unit), now);
+	}
+
+	String schedule(String appId, byte[] payloadUtf8, long delay, TimeUnit unit) {
+		requireAppId(appId);
+		long now = System.nanoTime();
+		return shardFor(appId).schedule(appId, payloadUtf8, now + TimerEngine.delayNanos(delay, unit), now);
+	}
+
+	String cancel(String appId) {
+		requireAppId(appId);
+		return shardFor(appId).cancel(appId);
+	}
+
+	String getPayload(String appId) {
+		requireAppId(appId);
+		return shardFor(appId).getPayload(appId);
+	}
+
+	Map<String, Object> getStats() {
+		long pending = 0;
+		for (SchedulerShard shard : shards) {
+			pending += shard.pendingCount();
+		}
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("scheduler", name);
+		stats.put("shards", shards.length);
+		stats.put("pending", pending);
+		stats.putAll(budget.snapshot());
+		stats.putAll(fireStats.snapshot());
+		stats.putAll(callbacks.snapshot());
+		return stats;
+	}
+
+	private void applyConfig() {
+		CallbackConfig reloaded = CallbackConfig.forScheduler(name);
+		TimerManager.configureBudget(budget, properties, label);
+		callbacks.reconfigure(reloaded);
+		// new connect timeout or HTTP version: in-flight requests finish on the old client
+		if (!client.matches(reloaded)) {
+			client = new CallbackClient(reloaded);
+		}
+		config = reloaded;
+	}
+
+	private void shutdown() {
+		for (SchedulerShard shard : shards) {
+			shard.shutdown();
+		}
+		callbacks.shutdown();
+	}
+
+	@Override
+	public FireTimeStats fireStats() {
+		return fireStats;
+	}
+
+	@Override
+	public boolean dispatch(String appId, String payloadJson) {
+		return callbacks.dispatch(appId, payloadJson);
+	}
+
+	@Override
+	public boolean dispatch(String appId, byte[] payloadUtf8) {
+		return callbacks.dispatch(appId, payloadUtf8);
+	}
+
+	@Override
+	public long retryDelayNanos() {
+		return callbacks.retryDelayNanos();
+	}
+
+	// Runs on this scheduler's callback pool: posts to its own endpoint (Option B of TimerManager.processApp()).
+	private CompletableFuture<Integer> processApp(String appId, byte[] payloadUtf8) {
+		System.out.println(label + ": processing appId=" + appId + " at " + Instant.now()
+			+ " payload=" + (payloadUtf8 == null ? 0 : payloadUtf8.length) + " bytes");
+		CompletableFuture<Integer> response;
+		try {
+			response = client.post(config, appId, payloadUtf8);
+		} catch (RuntimeException ex) {
+			// e.g. missing endpoint properties
+			response = CompletableFuture.failedFuture(ex);
+		}
+		return response.whenComplete((responseCode, error) -> {
+			if (error != null) {
+				System.err.println(label + ": callback failed for appId=" + appId + ": " + error);
+			} else {
+				System.out.println(label + ": callback responseCode=" + responseCode);
+			}
+		});
+	}
+
+	@Override
+	public SchedulerShard shardFor(String appId) {
+		return shards[SchedulerShard.indexFor(appId, shards.length)];
+	}
+
+	private static void requireAppId(String appId) {
+		if (appId == null || appId.trim().isEmpty()) {
+			throw new IllegalArgumentException("appId is required");
+		}
+	}
+
+	private int intProperty(String key, int defaultValue) {
+		return PropertyConfig.toInt(key, properties.apply(key), defaultValue);
+	}
+
+	private SchedulerShard[] createShards() {
+		int shardCount = Math.max(1, intProperty("timer.shards", 1));
+		int threadsPerShard = Math.max(1, intProperty("timer.shard.threads", 1));
+		TimerEngine.Provider engine = TimerEngines.provider(properties.apply("timer.engine"));
+		boolean lazyReschedule = "lazy".equalsIgnoreCase(properties.apply("timer.reschedule"));
+		System.out.println(label + ": starting " + shardCount + " shard(s), engine=" + engine.name()
+			+ ", threads per shard=" + threadsPerShard + ", reschedule=" + (lazyReschedule ? "lazy" : "eager")
+			+ ", default delay=" + defaultDelayMillis + "ms, callback pool=" + config.poolSize());
+
+		SchedulerShard[] created = new SchedulerShard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			TimerEngine shardEngine = engine.create("Scheduler-" + name + "-" + engine.name() + "-" + i, threadsPerShard, fireStats.boundMillis(), properties);
+			// memory only: no WAL, disk tier or arena; compression and dedup are TimerManager's
+			created[i] = new SchedulerShard(i, shardEngine, lazyReschedule, null, null, null, TimerManager.codec, TimerManager.dedup, budget, this);
+		}
+		return created;
+	}
+}
@@ -0,0 +1,654 @@
+package com.example.timer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * SchedulerShard: one independent partition of the TimerManager state (or of a
+ * named Scheduler's, see Owner).
+ *
+ * Each shard owns its own timer engine (and therefore its own delay queue and
+ * threads) plus its own appId -> TaskEntry map. TimerManager hashes every appId to
+ * exactly one shard, so schedule/cancel traffic for different appIds never
+ * contends on a shared queue lock.
+ *
+ * With a write-ahead log, schedule/cancel/fire records are appended inside the
+ * same atomic map operation that changes the entry, so the log order of one
+ * appId always matches the order in which its state changed. Those operations
+ * also share the shard's log lock, which WAL compaction takes exclusively for
+ * the moment it rolls the log (see TimerManager.compactWal()).
+ */
+final class SchedulerShard {
+
+	// timer.wal.durability=sync: appended to "scheduled"/"cancelled" when the change holds in memory but its record is not on disk
+	static final String NOT_DURABLE_SUFFIX = "_not_durable";
+
+	private final int index;
+	private final TimerEngine engine;
+	// timer.reschedule=lazy: a later deadline for a pending appId only updates its entry
+	private final boolean lazyReschedule;
+	// optional write-ahead log (timer.wal.dir), null when persistence is off
+	private final TimerWal wal;
+	// optional disk tier for tasks due beyond timer.tier.horizonMs, null when off
+	private final TierStore tier;
+	// optional off-heap payload store (timer.arena.enabled), null when payloads stay on the heap
+	private final PayloadArena arena;
+	// payload compression (timer.compress.minLength), shared by all shards
+	private final PayloadCodec codec;
+	// optional store of payloads shared by many appIds (timer.dedup.minLength), null when off
+	private final PayloadDedup dedup;
+	// pending task and payload accounting with the timer.limit.* admission limits, shared by all shards
+	private final HeapBudget budget;
+	// fire-time stats and callback hand-off of the scheduler the shard belongs to
+	private final Owner owner;
+	// held shared around every logged state change (only when wal != null)
+	private final StampedLock logLock = new StampedLock();
+
+	// one entry per pending appId (timer handle, deadline, payload and state)
+	private final ConcurrentHashMap<String, TaskEntry> tasks = new ConcurrentHashMap<>();
+
+	SchedulerShard(int index, TimerEngine engine, boolean lazyReschedule, TimerWal wal, TierStore tier, PayloadArena arena, PayloadCodec codec, PayloadDedup dedup, HeapBudget budget, Owner owner) {
+		this.index = index;
+		this.engine = engine;
+		this.lazyReschedule = lazyReschedule;
+		this.wal = wal;
+		this.tier = tier;
+		this.arena = arena;
+		this.codec = codec;
+		this.dedup = dedup;
+		this.budget = budget;
+		this.owner = owner;
+	}
+
+	int index() {
+		return index;
+	}
+
+	Owner owner() {
+		return owner;
+	}
+
+	// The shard of shardCount an appId belongs to; TimerManager and every named Scheduler hash the same way.
+	static int indexFor(String appId, int shardCount) {
+		int h = appId.hashCode();
+		// spread the high bits so appIds sharing a prefix still land on different shards
+		return Math.floorMod(h ^ (h >>> 16), shardCount);
+	}
+
+	/**
+		 * deadlineNanos is absolute (System.nanoTime() based); nowNanos is the caller's reading of that clock.
+		 *
+		 * @return "scheduled", or HeapBudget.THROTTLED / REJECTED if the timer.limit.* limits refused the task;
+		 *         with timer.wal.durability=sync, "scheduled_not_durable" if the task is scheduled in memory but
+		 *         its record could not be forced to disk.
+	 */
+	String schedule(String appId, String payloadJson, long deadlineNanos, long nowNanos) {
+		TimerWal.Record[] logged = new TimerWal.Record[1];
+		String status = scheduleLogged(appId, payloadJson, null, deadlineNanos, nowNanos, true, logged);
+		return durableStatus(status, appId, logged[0]);
+	}
+
+	// Byte variant: the UTF-8 payload is stored and handed to the callback without a String copy.
+	String schedule(String appId, byte[] payloadUtf8, long deadlineNanos, long nowNanos) {
+		TimerWal.Record[] logged = new TimerWal.Record[1];
+		String status = scheduleLogged(appId, null, payloadUtf8, deadlineNanos, nowNanos, true, logged);
+		return durableStatus(status, appId, logged[0]);
+	}
+
+	// WAL recovery: the task was accepted before the restart, so it bypasses the limits; no fsync wait per task.
+	void recover(String appId, String payloadJson, long deadlineNanos, long nowNanos) {
+		scheduleLogged(appId, payloadJson, null, deadlineNanos, nowNanos, false, new TimerWal.Record[1]);
+	}
+
+	// Schedules without waiting for the log and returns the status; the queued SCHEDULE record (null without
+	// a log or if the task was refused) is put in logged[0]. At most one of payloadJson and payloadUtf8 is set.
+	private String scheduleLogged(String appId, String payloadJson, byte[] payloadUtf8, long deadlineNanos, long nowNanos,
+			boolean admit, TimerWal.Record[] logged) {
+		long delayNanos = deadlineNanos - nowNanos;
+		int payloadSize = payloadJson != null ? payloadJson.length() : payloadUtf8 != null ? payloadUtf8.length : 0;
+		String[] refused = new String[1];
+		if (wal != null) {
+			// sync mode: wait for WAL queue space here, append() must not block inside compute()
+			wal.awaitCapacity();
+		}
+		// replace atomically: the previous task for the same appId is cancelled (or, in lazy
+		// mode, pushed back) under the same bin lock, so a concurrent cancel/fire sees one state
+		long stamp = lockLog();
+		try {
+			tasks.compute(appId, (key, previous) -> {
+				long payloadDelta = payloadSize - (previous == null ? 0L : previous.payloadSize);
+				if (admit) {
+					refused[0] = budget.admit(previous == null, payloadDelta);
+					if (refused[0] != null) {
+						// refused: nothing is logged and a pending task for this appId stays as it was
+						return previous;
+					}
+				} else {
+					budget.add(previous == null ? 1L : 0L, payloadDelta);
+				}
+				if (wal != null) {
+					logged[0] = payloadUtf8 != null
+						? wal.appendSchedule(appId, payloadUtf8, deadlineNanos)
+						: wal.appendSchedule(appId, payloadJson, deadlineNanos);
+				}
+				if (previous != null) {
+					if (lazyReschedule && !previous.tiered && deadlineNanos - previous.armedNanos >= 0) {
+						// the armed timer fires no later than the new deadline and re-arms itself then
+						releasePayload(previous);
+						previous.defer(payloadJson, payloadUtf8, deadlineNanos);
+						previous.payloadSize = payloadSize;
+						packPayload(previous);
+						return previous;
+					}
+					previous.cancel();
+					releasePayload(previous);
+				}
+				TaskEntry entry = new TaskEntry(this, appId, payloadJson, payloadUtf8, deadlineNanos);
+				entry.payloadSize = payloadSize;
+				armOrTier(entry, delayNanos);
+				packPayload(entry);
+				return entry;
+			});
+		} finally {
+			unlockLog(stamp);
+		}
+		return refused[0] != null ? refused[0] : "scheduled";
+	}
+
+	// far-future tasks go to the disk tier instead of the engine (if it has room), the rest are armed
+	private void armOrTier(TaskEntry entry, long delayNanos) {
+		if (tier != null && tier.isFar(delayNanos)) {
+			entry.tiered = true;
+			if (tier.offer(entry)) {
+				return;
+			}
+			entry.tiered = false;
+		}
+		entry.arm(engine.schedule(entry, delayNanos, TimeUnit.NANOSECONDS), entry.deadlineNanos);
+	}
+
+	/**
+		 * Armed entries reference the shared copy of a deduplicated payload, or keep their own in the
+		 * arena when there is one, compressed if it is long enough (heap or arena); tiered entries
+		 * hand theirs to the TierStore as they are.
+	 */
+	private void packPayload(TaskEntry entry) {
+		String payloadJson = entry.payload;
+		byte[] payloadUtf8 = entry.payloadBytes;
+		if (entry.tiered || (payloadJson == null && payloadUtf8 == null)) {
+			return;
+		}
+		int length = payloadJson != null ? payloadJson.length() : payloadUtf8.length;
+		if (dedup != null && dedup.accepts(length)) {
+			entry.sharedPayload = payloadJson != null ? dedup.acquire(payloadJson) : dedup.acquire(payloadUtf8);
+			clearHeapPayload(entry);
+			return;
+		}
+		if (arena == null && !codec.shouldCompress(length)) {
+			return;
+		}
+		byte[] packed = payloadJson != null ? codec.pack(payloadJson) : codec.pack(payloadUtf8);
+		if (arena != null) {
+			long handle = arena.allocate(packed);
+			if (handle != 0L) {
+				entry.payloadHandle = handle;
+				clearHeapPayload(entry);
+				return;
+			}
+		}
+		if (PayloadCodec.isCompressed(packed)) {
+			entry.packedPayload = packed;
+			clearHeapPayload(entry);
+		}
+	}
+
+	// volatile writes after the stored form was set: payloadOf() seeing null here also sees the stored form
+	private static void clearHeapPayload(TaskEntry entry) {
+		entry.payload = null;
+		entry.payloadBytes = null;
+	}
+
+	// Frees the entry's stored payload; called inside compute() once the entry is replaced, fired or cancelled.
+	private void releasePayload(TaskEntry entry) {
+		if (entry.payloadHandle != 0L) {
+			arena.free(entry.payloadHandle);
+			entry.payloadHandle = 0L;
+		}
+		entry.packedPayload = null;
+		PayloadDedup.Shared shared = entry.sharedPayload;
+		if (shared != null) {
+			dedup.release(shared);
+			entry.sharedPayload = null;
+		}
+	}
+
+	// UTF-8 bytes of a payload that is not held as a String, decompressed if needed (null if there are none)
+	private byte[] storedBytes(TaskEntry entry) {
+		if (entry.payloadHandle != 0L) {
+			return codec.unpackBytes(arena.read(entry.payloadHandle));
+		}
+		byte[] packed = entry.packedPayload;
+		if (packed != null) {
+			return codec.unpackBytes(packed);
+		}
+		PayloadDedup.Shared shared = entry.sharedPayload;
+		if (shared != null) {
+			return dedup.readBytes(shared);
+		}
+		return entry.payloadBytes;
+	}
+
+	// TierStore: the entry's payload was written at (bucket, offset); drop it from the heap if the entry is still current.
+	boolean spilled(TaskEntry entry, long bucket, long offset) {
+		boolean[] current = new boolean[1];
+		tasks.computeIfPresent(entry.appId, (key, existing) -> {
+			if (existing == entry && entry.tiered) {
+				entry.spillBucket = bucket;
+				entry.spillOffset = offset;
+				// volatile writes last: getPayload() seeing null also sees the location
+				clearHeapPayload(entry);
+				current[0] = true;
+			}
+			return existing;
+		});
+		return current[0];
+	}
+
+	// TierStore: the entry's deadline is within the horizon before it was written out (it still holds its payload), arm it now.
+	void promote(TaskEntry entry) {
+		tasks.computeIfPresent(entry.appId, (key, existing) -> {
+			if (existing == entry && entry.tiered) {
+				armPromoted(entry);
+			}
+			return existing;
+		});
+	}
+
+	/**
+		 * TierStore: a spilled record of appId came within the horizon.
+		 *
+		 * @return false if the record is stale (the appId was cancelled, fired or rescheduled since).
+	 */
+	boolean promote(String appId, long bucket, long offset, byte[] payloadUtf8) {
+		boolean[] current = new boolean[1];
+		tasks.computeIfPresent(appId, (key, existing) -> {
+			if (existing.tiered && existing.spillBucket == bucket && existing.spillOffset == offset) {
+				// read back as bytes, the callback gets them without a String round-trip
+				existing.payloadBytes = payloadUtf8;
+				armPromoted(existing);
+				current[0] = true;
+			}
+			return existing;
+		});
+		return current[0];
+	}
+
+	// Memory pressure: offers the armed entries due beyond horizonNanos whose payload is on the heap (not off-heap or shared).
+	void collectSpillable(long horizonNanos, long nowNanos, SpillCandidates candidates) {
+		for (TaskEntry entry : tasks.values()) {
+			if (isSpillable(entry, horizonNanos, nowNanos)) {
+				// read once: a lazy reschedule may move the deadline while the candidates are ranked
+				candidates.offer(entry, entry.deadlineNanos - nowNanos);
+			}
+		}
+	}
+
+	private static boolean isSpillable(TaskEntry entry, long horizonNanos, long nowNanos) {
+		return !entry.tiered && entry.payloadHandle == 0L && entry.sharedPayload == null && entry.deadlineNanos - nowNanos > horizonNanos;
+	}
+
+	/**
+		 * Memory pressure: takes an armed entry off the engine and hands it to the disk tier, with its
+		 * payload decompressed to bytes for the tier thread.
+		 *
+		 * @return false if the entry is no longer spillable or the tier queue is full (it stays armed then).
+	 */
+	boolean spill(TaskEntry entry, long horizonNanos) {
+		boolean[] queued = new boolean[1];
+		tasks.computeIfPresent(entry.appId, (key, existing) -> {
+			if (existing != entry || !isSpillable(entry, horizonNanos, System.nanoTime()) || entry.handle == null) {
+				return existing;
+			}
+			entry.handle.cancel();
+			entry.handle = null;
+			if (entry.payload == null) {
+				byte[] payloadUtf8 = storedBytes(entry);
+				releasePayload(entry);
+				entry.payloadBytes = payloadUtf8;
+			}
+			entry.tiered = true;
+			if (tier.offer(entry)) {
+				queued[0] = true;
+			} else {
+				armPromoted(entry);
+			}
+			return existing;
+		});
+		return queued[0];
+	}
+
+	private void armPromoted(TaskEntry entry) {
+		entry.tiered = false;
+		entry.spillOffset = -1;
+		packPayload(entry);
+		long delayNanos = Math.max(0L, entry.deadlineNanos - System.nanoTime());
+		entry.arm(engine.schedule(entry, delayNanos, TimeUnit.NANOSECONDS), entry.deadlineNanos);
+	}
+
+	private long lockLog() {
+		return wal == null ? 0L : logLock.readLock();
+	}
+
+	private void unlockLog(long stamp) {
+		if (stamp != 0L) {
+			logLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+		 * Blocks every logged state change of this shard until resumeLogging(); in-flight
+		 * changes finish first. Held by WAL compaction only while it rolls the log.
+	 */
+	long pauseLogging() {
+		return logLock.writeLock();
+	}
+
+	void resumeLogging(long stamp) {
+		logLock.unlockWrite(stamp);
+	}
+
+	// Reports every pending task to a WAL snapshot (weakly consistent, see TimerManager.compactWal()).
+	void forEachPending(TimerWal.SnapshotWriter writer) {
+		for (TaskEntry entry : tasks.values()) {
+			writer.add(entry.appId, currentPayload(entry), entry.deadlineNanos);
+		}
+	}
+
+	// sync durability: wait (outside the map lock) until the record is forced; concurrent callers share the fsync.
+	// The change itself stays in effect in memory if the record is not durable; the status says so.
+	private String durableStatus(String status, String appId, TimerWal.Record record) {
+		if (wal == null || wal.awaitDurable(record)) {
+			return status;
+		}
+		System.err.println("SchedulerShard: write-ahead log did not persist appId=" + appId + " (" + status + ")");
+		return status + NOT_DURABLE_SUFFIX;
+	}
+
+	// Called by the timer engine once the entry's armed delay has elapsed.
+	void fire(TaskEntry entry) {
+		String[] firedJson = new String[1];
+		byte[][] firedBytes = new byte[1][];
+		// set by this run only: a stale run of an entry that fired already must not dispatch again
+		boolean[] fired = new boolean[1];
+		long stamp = lockLog();
+		try {
+			tasks.computeIfPresent(entry.appId, (key, current) -> {
+				// a superseded entry was already cancelled; leave its replacement alone. A tiered entry
+				// was spilled under memory pressure after its timer went off; the tier re-arms it.
+				if (current != entry || current.tiered) {
+					return current;
+				}
+				long remainingNanos = current.deadlineNanos - System.nanoTime();
+				if (remainingNanos > 0) {
+					// deadline was pushed back by a lazy reschedule: re-arm for the rest
+					current.arm(engine.schedule(current, remainingNanos, TimeUnit.NANOSECONDS), current.deadlineNanos);
+					return current;
+				}
+				current.markFired();
+				fired[0] = true;
+				// stored forms are released here, the callback gets the String or the UTF-8 bytes
+				firedJson[0] = current.payload;
+				if (firedJson[0] == null) {
+					firedBytes[0] = storedBytes(current);
+				}
+				releasePayload(current);
+				budget.add(-1L, -current.payloadSize);
+				if (wal != null) {
+					wal.appendFire(key);
+				}
+				return null;
+			});
+		} finally {
+			unlockLog(stamp);
+		}
+		// only this run's lambda fires the entry; anything else was re-armed, superseded, cancelled or fired before
+		if (!fired[0]) {
+			return;
+		}
+		owner.fireStats().record(entry.appId, System.nanoTime() - entry.deadlineNanos);
+		// hand off to the callback pool (or batcher), the timer thread never runs processApp itself
+		boolean accepted = firedBytes[0] != null
+			? owner.dispatch(entry.appId, firedBytes[0])
+			: owner.dispatch(entry.appId, firedJson[0]);
+		if (!accepted) {
+			retryLater(entry, firedJson[0], firedBytes[0]);
+		}
+	}
+
+	// The callback pool/batcher is saturated: keep the task pending and retry shortly, unless it was rescheduled meanwhile.
+	private void retryLater(TaskEntry fired, String payloadJson, byte[] payloadUtf8) {
+		long retryNanos = owner.retryDelayNanos();
+		long deadlineNanos = System.nanoTime() + retryNanos;
+		long stamp = lockLog();
+		try {
+			tasks.compute(fired.appId, (key, current) -> {
+				if (current != null) {
+					return current;
+				}
+				if (wal != null) {
+					if (payloadUtf8 != null) {
+						wal.appendSchedule(key, payloadUtf8, deadlineNanos);
+					} else {
+						wal.appendSchedule(key, payloadJson, deadlineNanos);
+					}
+				}
+				TaskEntry retry = new TaskEntry(this, fired.appId, payloadJson, payloadUtf8, deadlineNanos);
+				// taken back whatever the limits say, the task was accepted already
+				retry.payloadSize = fired.payloadSize;
+				budget.add(1L, retry.payloadSize);
+				retry.arm(engine.schedule(retry, retryNanos, TimeUnit.NANOSECONDS), deadlineNanos);
+				packPayload(retry);
+				return retry;
+			});
+		} finally {
+			unlockLog(stamp);
+		}
+	}
+
+	// Batch variant: every appId of the group belongs to this shard and shares one deadline; statuses go to results.
+	void scheduleAll(List<String> appIds, Map<String, String> payloadsByAppId, long deadlineNanos, long nowNanos, Map<String, String> results) {
+		if (wal == null || !wal.isSync()) {
+			for (String appId : appIds) {
+				results.put(appId, schedule(appId, payloadsByAppId.get(appId), deadlineNanos, nowNanos));
+			}
+			return;
+		}
+		// queue the whole group first so it goes out in as few fsyncs as possible, then wait
+		TimerWal.Record[] logged = new TimerWal.Record[appIds.size()];
+		TimerWal.Record[] record = new TimerWal.Record[1];
+		for (int i = 0; i < logged.length; i++) {
+			String appId = appIds.get(i);
+			results.put(appId, scheduleLogged(appId, payloadsByAppId.get(appId), null, deadlineNanos, nowNanos, true, record));
+			logged[i] = record[0];
+			record[0] = null;
+		}
+		for (int i = 0; i < logged.length; i++) {
+			String appId = appIds.get(i);
+			results.put(appId, durableStatus(results.get(appId), appId, logged[i]));
+		}
+	}
+
+	String getPayload(String appId) {
+		TaskEntry entry = tasks.get(appId);
+		return entry == null ? null : currentPayload(entry);
+	}
+
+	private String currentPayload(TaskEntry entry) {
+		String payloadJson = entry.payload;
+		if (payloadJson != null) {
+			return payloadJson;
+		}
+		// stored forms are freed and replaced under the bin lock, so they are read under it too
+		String[] stored = new String[1];
+		long[] spill = {0L, -1L};
+		tasks.computeIfPresent(entry.appId, (key, existing) -> {
+			if (existing.spillOffset >= 0) {
+				// spilled: read from disk outside the lock
+				spill[0] = existing.spillBucket;
+				spill[1] = existing.spillOffset;
+			} else {
+				stored[0] = payloadOf(existing);
+			}
+			return existing;
+		});
+		if (spill[1] < 0) {
+			return stored[0];
+		}
+		payloadJson = tier.read(spill[0], spill[1]);
+		// null: promoted in the meantime, the shard holds the payload again
+		return payloadJson != null ? payloadJson : currentPayload(entry);
+	}
+
+	// payload of an entry that is not spilled, decoded if it is stored as bytes; only inside compute() for its appId
+	private String payloadOf(TaskEntry entry) {
+		String payloadJson = entry.payload;
+		if (payloadJson != null) {
+			return payloadJson;
+		}
+		byte[] payloadUtf8 = storedBytes(entry);
+		return payloadUtf8 == null ? null : new String(payloadUtf8, StandardCharsets.UTF_8);
+	}
+
+	String cancel(String appId) {
+		if (wal == null && arena == null && dedup == null) {
+			TaskEntry removed = tasks.remove(appId);
+			if (removed != null) {
+				budget.add(-1L, -removed.payloadSize);
+			}
+			return cancelEntry(removed);
+		}
+		// remove + CANCEL record under the bin lock, so a concurrent schedule of the same appId is logged after it;
+		// an arena block or shared payload reference is released under the same lock
+		TaskEntry[] removed = new TaskEntry[1];
+		TimerWal.Record[] logged = new TimerWal.Record[1];
+		if (wal != null) {
+			wal.awaitCapacity();
+		}
+		long stamp = lockLog();
+		try {
+			tasks.computeIfPresent(appId, (key, entry) -> {
+				if (wal != null) {
+					logged[0] = wal.appendCancel(key);
+				}
+				releasePayload(entry);
+				budget.add(-1L, -entry.payloadSize);
+				removed[0] = entry;
+				return null;
+			});
+		} finally {
+			unlockLog(stamp);
+		}
+		return durableStatus(cancelEntry(removed[0]), appId, logged[0]);
+	}
+
+	private static String cancelEntry(TaskEntry entry) {
+		if (entry != null) {
+			return entry.cancel() ? "cancelled" : "not_cancelled";
+		}
+		return "not_found";
+	}
+
+	void cancelAll(List<String> appIds, Map<String, String> results) {
+		for (String appId : appIds) {
+			results.put(appId, cancel(appId));
+		}
+	}
+
+	int pendingCount() {
+		return tasks.size();
+	}
+
+	void addArenaStats(Map<String, Object> stats) {
+		if (arena != null) {
+			arena.addStats(stats);
+		}
+	}
+
+	void shutdown() {
+		engine.shutdown();
+	}
+
+	/**
+	 * Memory pressure: the farthest-due spillable entries of all shards, at most limit of them
+	 * (what the tier queue can take), kept in a min-heap on the remaining delay seen at collection.
+	 * Memory and work stay bounded by the limit rather than by the number of pending tasks.
+	 */
+	static final class SpillCandidates {
+
+		private final int limit;
+		private final PriorityQueue<Candidate> heap;
+
+		SpillCandidates(int limit) {
+			this.limit = limit;
+			this.heap = new PriorityQueue<>(Math.max(1, Math.min(limit, 1024)), (a, b) -> Long.compare(a.remainingNanos, b.remainingNanos));
+		}
+
+		void offer(TaskEntry entry, long remainingNanos) {
+			if (heap.size() < limit) {
+				heap.add(new Candidate(entry, remainingNanos));
+			} else if (limit > 0 && remainingNanos > heap.peek().remainingNanos) {
+				// replace the nearest one, reusing its holder
+				Candidate nearest = heap.poll();
+				nearest.entry = entry;
+				nearest.remainingNanos = remainingNanos;
+				heap.add(nearest);
+			}
+		}
+
+		// coldest first: if the tier queue fills up, the tasks left in memory are the ones due soonest
+		List<TaskEntry> farthestFirst() {
+			List<TaskEntry> entries = new ArrayList<>(heap.size());
+			while (!heap.isEmpty()) {
+				entries.add(heap.poll().entry);
+			}
+			Collections.reverse(entries);
+			return entries;
+		}
+
+		private static final class Candidate {
+			TaskEntry entry;
+			long remainingNanos;
+
+			Candidate(TaskEntry entry, long remainingNanos) {
+				this.entry = entry;
+				this.remainingNanos = remainingNanos;
+			}
+		}
+	}
+
+	/**
+	 * The scheduler a shard fires for: TimerManager itself, or a named Scheduler with its
+	 * own fire-time stats and callback pool.
+	 */
+	interface Owner {
+
+		FireTimeStats fireStats();
+
+		// false if the callback side cannot take the task right now (it is retried after retryDelayNanos())
+		boolean dispatch(String appId, String payloadJson);
+
+		boolean dispatch(String appId, byte[] payloadUtf8);
+
+		long retryDelayNanos();
+
+		// the owner's shard for appId (see indexFor()), e.g. for tasks the tier reads back by appId
+		SchedulerShard shardFor(String appId);
+	}
+}
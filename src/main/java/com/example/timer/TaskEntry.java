@@ -0,0 +1,96 @@
+package com.example.timer;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * TaskEntry: everything a shard tracks for one pending appId.
+ *
+ * A single entry holds the armed timer, deadline, payload and lifecycle state,
+ * so each pending task costs one map node instead of one per parallel map. The
+ * entry is also the Runnable handed to the timer engine, which saves a lambda
+ * allocation per schedule.
+ *
+ * Entries are only ever installed or removed through the shard map's atomic
+ * operations; the state field decides the fire-vs-cancel race for an entry
+ * that has already been taken out of the map.
+ */
+final class TaskEntry implements Runnable {
+
+	static final int PENDING = 0;
+	static final int FIRED = 1;
+	static final int CANCELLED = 2;
+
+	private static final AtomicIntegerFieldUpdater<TaskEntry> STATE =
+		AtomicIntegerFieldUpdater.newUpdater(TaskEntry.class, "state");
+
+	final SchedulerShard shard;
+	final String appId;
+	// payload and deadline are replaced in place by a lazy reschedule; null while the payload is
+	// bytes (payloadBytes), shared (sharedPayload), packed (packedPayload), off-heap (payloadHandle)
+	// or spilled to the disk tier
+	volatile String payload;
+	// UTF-8 payload of a task scheduled through a byte[]/InputStream overload, passed to the callback as is
+	volatile byte[] payloadBytes;
+	// timer.compress.minLength: compressed form of a long payload kept on the heap (see PayloadCodec)
+	volatile byte[] packedPayload;
+	// timer.dedup.minLength: reference to a payload copy shared with other appIds (see PayloadDedup)
+	volatile PayloadDedup.Shared sharedPayload;
+	// System.nanoTime() based, so wall-clock adjustments do not move it
+	volatile long deadlineNanos;
+
+	// timer currently armed for this entry and the deadline it was armed for;
+	// only written inside the shard map's compute() for this appId
+	TimerEngine.Handle handle;
+	long armedNanos;
+	// timer.tier.horizonMs or memory pressure: not armed, waiting in the TierStore; once spilled the payload is
+	// null and lives at (spillBucket, spillOffset). Written inside compute() like handle.
+	boolean tiered;
+	long spillBucket;
+	long spillOffset = -1;
+	// timer.arena.enabled: block of the shard's PayloadArena holding the payload, 0 if none.
+	// Allocated, read and freed inside compute() like handle.
+	long payloadHandle;
+	// size charged to the HeapBudget for this entry's payload, written inside compute() like handle
+	int payloadSize;
+	private volatile int state = PENDING;
+
+	TaskEntry(SchedulerShard shard, String appId, String payload, byte[] payloadBytes, long deadlineNanos) {
+		this.shard = shard;
+		this.appId = appId;
+		this.payload = payload;
+		this.payloadBytes = payloadBytes;
+		this.deadlineNanos = deadlineNanos;
+	}
+
+	@Override
+	public void run() {
+		shard.fire(this);
+	}
+
+	void arm(TimerEngine.Handle handle, long armedNanos) {
+		this.handle = handle;
+		this.armedNanos = armedNanos;
+	}
+
+	// Lazy reschedule: keep the armed timer, it re-arms itself for the new deadline when it fires.
+	void defer(String payload, byte[] payloadBytes, long deadlineNanos) {
+		this.payload = payload;
+		this.payloadBytes = payloadBytes;
+		this.deadlineNanos = deadlineNanos;
+	}
+
+	boolean markFired() {
+		return STATE.compareAndSet(this, PENDING, FIRED);
+	}
+
+	// Cancel the timer; true if the task had not fired yet and now never will.
+	boolean cancel() {
+		if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+			return false;
+		}
+		if (handle != null) {
+			handle.cancel();
+		}
+		return true;
+	}
+}
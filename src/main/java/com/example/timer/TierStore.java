@@ -0,0 +1,338 @@
+package com.example.timer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TierStore: disk tier for far-future tasks.
+ *
+ * With timer.tier.horizonMs > 0, a task due further out than the horizon is
+ * not armed on the timer engine. Its shard keeps a slim TaskEntry (appId and
+ * deadline) and hands the entry to this store, whose "TimerManager-tier" thread
+ * appends appId and payload to the bucket file covering its deadline
+ * (one file per timer.tier.bucketMs window, in timer.tier.dir) and then drops
+ * the payload from the heap. Buckets are kept sorted by deadline; as the start
+ * of a bucket comes within the horizon the whole file is read back (memory
+ * mapped), every record that is still the current state of its appId is armed
+ * on the in-memory engine, and the file is deleted.
+ *
+ * Cancelled or rescheduled tasks leave dead records behind that are skipped at
+ * promotion, so disk space is reclaimed bucket by bucket.
+ *
+ * MemoryPressure shrinks the horizon while old-gen is short (constrain()) and
+ * restores it afterwards (relax()); the buckets that are within the restored
+ * horizon are then promoted on the next pass. Without timer.tier.horizonMs the
+ * horizon is unbounded, so tasks only come here under memory pressure. The tier is a heap
+ * saving, not a persistence layer: its files are process-local and cleared at
+ * startup (the write-ahead log covers restarts).
+ */
+final class TierStore {
+
+	private static final String BUCKET_PREFIX = "bucket-";
+	private static final String BUCKET_SUFFIX = ".tier";
+
+	private final Path directory;
+	// configured horizon (Long.MAX_VALUE: memory pressure only) and the one in effect
+	private final long baseHorizonNanos;
+	private volatile long horizonNanos;
+	private final long bucketNanos;
+	private final LinkedBlockingQueue<TaskEntry> queue;
+	private final Thread worker;
+	private volatile boolean running = true;
+
+	// bucket index (deadlineNanos / bucketNanos) -> file; only touched by the tier thread
+	private final TreeMap<Long, Bucket> buckets = new TreeMap<>();
+	// bucket files by index for getPayload() callers; they open their own channel, an interrupted
+	// reader would otherwise close the channel the tier thread writes to
+	private final ConcurrentHashMap<Long, Path> readers = new ConcurrentHashMap<>();
+	private final AtomicLong fileCounter = new AtomicLong();
+
+	private final LongAdder spilled = new LongAdder();
+	private final LongAdder promoted = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private volatile long bytesOnDisk;
+
+	TierStore(Path directory, long horizonMillis, long bucketMillis, int queueCapacity) throws IOException {
+		this.directory = directory;
+		this.baseHorizonNanos = TimeUnit.MILLISECONDS.toNanos(horizonMillis);
+		this.horizonNanos = baseHorizonNanos;
+		this.bucketNanos = TimeUnit.MILLISECONDS.toNanos(bucketMillis);
+		this.queue = new LinkedBlockingQueue<>(queueCapacity);
+		Files.createDirectories(directory);
+		// leftovers of a previous run: their tasks come back through the write-ahead log, if any
+		try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, BUCKET_PREFIX + "*" + BUCKET_SUFFIX)) {
+			for (Path path : stale) {
+				Files.deleteIfExists(path);
+			}
+		}
+		this.worker = new Thread(this::run, "TimerManager-tier");
+		this.worker.setDaemon(true);
+		this.worker.start();
+		if (baseHorizonNanos == Long.MAX_VALUE) {
+			System.out.println("TierStore: tasks go to " + directory + " in " + bucketMillis + "ms buckets under memory pressure only");
+		} else {
+			System.out.println("TierStore: tasks due beyond " + horizonMillis + "ms go to " + directory + " in " + bucketMillis + "ms buckets");
+		}
+	}
+
+	// true if a task with this delay belongs on disk rather than on the timer engine
+	boolean isFar(long delayNanos) {
+		return delayNanos > horizonNanos;
+	}
+
+	/**
+	 * Queues a tiered entry for spilling; called inside the shard's compute() for its appId.
+	 *
+	 * @return false if the tier queue is full, in which case the caller arms the entry in memory.
+	 */
+	boolean offer(TaskEntry entry) {
+		if (running && queue.offer(entry)) {
+			return true;
+		}
+		rejected.increment();
+		return false;
+	}
+
+	boolean isFull() {
+		return queue.remainingCapacity() == 0;
+	}
+
+	int remainingCapacity() {
+		return queue.remainingCapacity();
+	}
+
+	// Memory pressure: tasks due beyond horizonNanos go to disk until relax().
+	void constrain(long horizonNanos) {
+		this.horizonNanos = Math.min(baseHorizonNanos, horizonNanos);
+	}
+
+	void relax() {
+		horizonNanos = baseHorizonNanos;
+	}
+
+	/**
+	 * Reads a spilled payload back for getPayload().
+	 *
+	 * @return null if the bucket was promoted meanwhile (the entry then holds the payload again).
+	 */
+	String read(long bucket, long offset) {
+		Path file = readers.get(bucket);
+		if (file == null) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(4);
+			readFully(channel, header, offset);
+			long payloadAt = offset + 4 + header.getInt(0);
+			header.clear();
+			readFully(channel, header, payloadAt);
+			int payloadLength = header.getInt(0);
+			if (payloadLength < 0) {
+				return null;
+			}
+			ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+			readFully(channel, payload, payloadAt + 4);
+			return new String(payload.array(), StandardCharsets.UTF_8);
+		} catch (IOException ex) {
+			// deleted by a concurrent promotion
+			return null;
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+		while (target.hasRemaining()) {
+			if (channel.read(target, position + target.position()) < 0) {
+				throw new IOException("unexpected end of tier file");
+			}
+		}
+	}
+
+	private void run() {
+		List<TaskEntry> batch = new ArrayList<>();
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		while (running) {
+			try {
+				TaskEntry first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					queue.drainTo(batch, 4095);
+					for (TaskEntry entry : batch) {
+						spill(entry, buffer);
+					}
+					batch.clear();
+				}
+				promoteDueBuckets();
+			} catch (InterruptedException e) {
+				running = false;
+			} catch (RuntimeException ex) {
+				ex.printStackTrace();
+			}
+		}
+		for (Bucket bucket : buckets.values()) {
+			bucket.delete();
+		}
+		buckets.clear();
+	}
+
+	private void spill(TaskEntry entry, ByteBuffer buffer) {
+		long index = Math.floorDiv(entry.deadlineNanos, bucketNanos);
+		// its bucket is within the horizon already: straight to the engine
+		if (index * bucketNanos - System.nanoTime() <= horizonNanos) {
+			entry.shard.promote(entry);
+			return;
+		}
+		String payloadJson = entry.payload;
+		byte[] appIdBytes = entry.appId.getBytes(StandardCharsets.UTF_8);
+		byte[] payloadBytes = payloadJson != null ? payloadJson.getBytes(StandardCharsets.UTF_8) : entry.payloadBytes;
+		int size = 4 + appIdBytes.length + 4 + (payloadBytes == null ? 0 : payloadBytes.length);
+		ByteBuffer target = size <= buffer.capacity() ? buffer : ByteBuffer.allocate(size);
+		target.clear();
+		target.putInt(appIdBytes.length).put(appIdBytes);
+		if (payloadBytes == null) {
+			target.putInt(-1);
+		} else {
+			target.putInt(payloadBytes.length).put(payloadBytes);
+		}
+		target.flip();
+		try {
+			Bucket bucket = buckets.get(index);
+			if (bucket == null) {
+				bucket = new Bucket(index, directory.resolve(BUCKET_PREFIX + fileCounter.incrementAndGet() + BUCKET_SUFFIX), entry.shard.owner());
+				buckets.put(index, bucket);
+				readers.put(index, bucket.path);
+			}
+			long offset = bucket.size;
+			while (target.hasRemaining()) {
+				bucket.channel.write(target);
+			}
+			bucket.size += size;
+			bytesOnDisk += size;
+			if (entry.shard.spilled(entry, index, offset)) {
+				spilled.increment();
+			}
+		} catch (IOException ex) {
+			System.err.println("TierStore: cannot spill appId=" + entry.appId + ", keeping it in memory: " + ex);
+			entry.shard.promote(entry);
+		}
+	}
+
+	private void promoteDueBuckets() {
+		long now = System.nanoTime();
+		long horizon = horizonNanos;
+		while (!buckets.isEmpty()) {
+			Map.Entry<Long, Bucket> first = buckets.firstEntry();
+			// no now + horizon: an unbounded horizon would overflow
+			if (first.getKey() * bucketNanos - now > horizon) {
+				return;
+			}
+			buckets.pollFirstEntry();
+			promote(first.getValue());
+		}
+	}
+
+	private void promote(Bucket bucket) {
+		int count = 0;
+		try {
+			MappedByteBuffer mapped = bucket.channel.map(FileChannel.MapMode.READ_ONLY, 0, bucket.size);
+			while (mapped.hasRemaining()) {
+				long offset = mapped.position();
+				String appId = readString(mapped);
+				byte[] payloadUtf8 = readBytes(mapped);
+				if (bucket.owner.shardFor(appId).promote(appId, bucket.index, offset, payloadUtf8)) {
+					count++;
+				} else {
+					// cancelled or rescheduled since it was spilled
+					skipped.increment();
+				}
+			}
+		} catch (IOException | RuntimeException ex) {
+			System.err.println("TierStore: error promoting " + bucket.path + ": " + ex);
+		} finally {
+			promoted.add(count);
+			readers.remove(bucket.index);
+			bytesOnDisk -= bucket.size;
+			bucket.delete();
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = readBytes(buffer);
+		return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] readBytes(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	Map<String, Object> snapshot() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		long horizon = horizonNanos;
+		stats.put("tierHorizonMs", horizon == Long.MAX_VALUE ? -1L : TimeUnit.NANOSECONDS.toMillis(horizon));
+		stats.put("tierQueued", queue.size());
+		stats.put("tierBuckets", readers.size());
+		stats.put("tierBytesOnDisk", bytesOnDisk);
+		stats.put("tierSpilled", spilled.sum());
+		stats.put("tierPromoted", promoted.sum());
+		stats.put("tierSkipped", skipped.sum());
+		stats.put("tierRejected", rejected.sum());
+		return stats;
+	}
+
+	void shutdown() {
+		running = false;
+		try {
+			worker.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static final class Bucket {
+		final long index;
+		final Path path;
+		final FileChannel channel;
+		// the scheduler whose shards spilled into this bucket, and get its records back
+		final SchedulerShard.Owner owner;
+		long size;
+
+		Bucket(long index, Path path, SchedulerShard.Owner owner) throws IOException {
+			this.index = index;
+			this.path = path;
+			this.owner = owner;
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		}
+
+		void delete() {
+			try {
+				channel.close();
+				Files.deleteIfExists(path);
+			} catch (IOException ex) {
+				System.err.println("TierStore: cannot delete " + path + ": " + ex);
+			}
+		}
+	}
+}
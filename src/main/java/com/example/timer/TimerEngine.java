@@ -0,0 +1,76 @@
+package com.example.timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * TimerEngine: the mechanism TimerManager uses to run a task after a delay.
+ *
+ * TimerManager keeps the appId bookkeeping; an engine only has to fire a
+ * Runnable once its delay has elapsed and allow it to be cancelled before that.
+ *
+ * - ExecutorTimerEngine     -> ScheduledThreadPoolExecutor (timer.engine=executor, default)
+ * - HierarchicalTimingWheel -> O(1) insert/cancel timing wheel (timer.engine=wheel)
+ * - BucketedDelayQueue      -> per-tick buckets in a DelayQueue (timer.engine=bucket)
+ *
+ * Other engines plug in through a Provider (see TimerEngines), which is why
+ * this interface is public while the built-in engines are not.
+ */
+public interface TimerEngine {
+
+	// longest delay a timer is armed with (about 73 years), so System.nanoTime() + delay cannot overflow
+	long MAX_DELAY_NANOS = Long.MAX_VALUE / 4;
+
+	/**
+	 * A delay in nanoseconds, with negative delays raised to 0 and longer ones capped at MAX_DELAY_NANOS.
+	 */
+	static long delayNanos(long delay, TimeUnit unit) {
+		return Math.min(unit.toNanos(Math.max(0L, delay)), MAX_DELAY_NANOS);
+	}
+
+	/**
+	 * Arms a one-shot timer.
+	 *
+	 * @param task  The work to run once the delay has elapsed.
+	 * @param delay The delay, relative to now; engines cap it with delayNanos().
+	 * @param unit  The unit of {@code delay}.
+	 * @return A handle that can cancel the timer before it fires.
+	 */
+	Handle schedule(Runnable task, long delay, TimeUnit unit);
+
+	// Stop firing timers and release the engine threads.
+	void shutdown();
+
+	/**
+	 * Handle to a single armed timer.
+	 */
+	interface Handle {
+
+		// true if the timer was still pending and will now never fire
+		boolean cancel();
+
+		// true once the timer has fired or been cancelled
+		boolean isDone();
+	}
+
+	/**
+	 * Service provider for an engine, selected by its name in timer.engine. Found with
+	 * java.util.ServiceLoader (META-INF/services/com.example.timer.TimerEngine$Provider),
+	 * or by its fully qualified class name as the timer.engine value; needs a public no-arg constructor.
+	 */
+	interface Provider {
+
+		// the timer.engine value that selects this provider (case-insensitive)
+		String name();
+
+		/**
+		 * Creates the engine of one scheduler shard.
+		 *
+		 * @param threadName         Name (prefix) for the engine's threads.
+		 * @param threads            timer.shard.threads, for engines with a thread pool.
+		 * @param maxFireErrorMillis timer.maxFireErrorMs: timers should not fire later than this.
+		 * @param settings           Property lookup for the engine's own settings (empty string if unset).
+		 */
+		TimerEngine create(String threadName, int threads, long maxFireErrorMillis, UnaryOperator<String> settings);
+	}
+}
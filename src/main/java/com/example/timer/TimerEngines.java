@@ -0,0 +1,150 @@
+package com.example.timer;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+/**
+ * TimerEngines: the TimerEngine providers timer.engine can select.
+ *
+ * executor, wheel and bucket are built in. Further engines are picked up from
+ * the classpath with java.util.ServiceLoader, or named directly by the fully
+ * qualified class name of their TimerEngine.Provider, so a new engine can be
+ * benchmarked per environment by changing only the engine line of its
+ * <env>-config.properties; call sites and Mule flows stay the same.
+ *
+ * Sharding is not an engine of its own: every engine runs once per shard
+ * (timer.shards, timer.shards=1 for a single unsharded engine).
+ */
+final class TimerEngines {
+
+	private static final String DEFAULT_ENGINE = "executor";
+
+	// lower-case name -> provider, built-ins first so a plugged-in engine cannot shadow them
+	private static final Map<String, TimerEngine.Provider> providers = load();
+
+	private TimerEngines() {
+	}
+
+	private static Map<String, TimerEngine.Provider> load() {
+		Map<String, TimerEngine.Provider> loaded = new TreeMap<>();
+		register(loaded, new ExecutorProvider());
+		register(loaded, new WheelProvider());
+		register(loaded, new BucketProvider());
+		try {
+			for (TimerEngine.Provider provider : ServiceLoader.load(TimerEngine.Provider.class, TimerEngines.class.getClassLoader())) {
+				register(loaded, provider);
+			}
+		} catch (ServiceConfigurationError ex) {
+			System.err.println("TimerEngines: cannot load a timer engine provider: " + ex);
+		}
+		return loaded;
+	}
+
+	private static void register(Map<String, TimerEngine.Provider> target, TimerEngine.Provider provider) {
+		String name = provider.name().toLowerCase(Locale.ROOT);
+		if (target.putIfAbsent(name, provider) != null) {
+			System.err.println("TimerEngines: engine name '" + name + "' is taken, ignoring " + provider.getClass().getName());
+		}
+	}
+
+	/**
+		 * Looks up a timer.engine value: a provider name or a Provider class name.
+		 * Unknown values fall back to the executor engine.
+	 */
+	static TimerEngine.Provider provider(String engine) {
+		if (engine == null || engine.trim().isEmpty()) {
+			return providers.get(DEFAULT_ENGINE);
+		}
+		TimerEngine.Provider provider = providers.get(engine.trim().toLowerCase(Locale.ROOT));
+		if (provider != null) {
+			return provider;
+		}
+		try {
+			Class<?> type = Class.forName(engine.trim(), true, TimerEngines.class.getClassLoader());
+			return type.asSubclass(TimerEngine.Provider.class).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | ClassCastException | LinkageError ex) {
+			System.err.println("TimerEngines: unknown timer.engine '" + engine + "' (available: " + providers.keySet() + "), using " + DEFAULT_ENGINE + ": " + ex);
+			return providers.get(DEFAULT_ENGINE);
+		}
+	}
+
+	// integer engine setting, like PropertyConfig.getIntProperty() but on the given lookup
+	static int intSetting(UnaryOperator<String> settings, String key, int defaultValue) {
+		String value = settings.apply(key);
+		if (value == null || value.isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			System.err.println("Warning: Property '" + key + "' has an invalid format. Using default value " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	// a timer fires up to one tick late, so the tick may not exceed the fire-time error bound
+	private static long boundedTick(String key, long tickMillis, long maxFireErrorMillis) {
+		if (tickMillis > maxFireErrorMillis) {
+			System.err.println("TimerEngines: " + key + "=" + tickMillis + " exceeds timer.maxFireErrorMs, using " + maxFireErrorMillis + "ms ticks");
+			return Math.max(1L, maxFireErrorMillis);
+		}
+		return tickMillis;
+	}
+
+	private static final class ExecutorProvider implements TimerEngine.Provider {
+
+		@Override
+		public String name() {
+			return DEFAULT_ENGINE;
+		}
+
+		@Override
+		public TimerEngine create(String threadName, int threads, long maxFireErrorMillis, UnaryOperator<String> settings) {
+			AtomicInteger threadCounter = new AtomicInteger(0);
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads, r -> {
+				Thread t = new Thread(r, threadName + "-" + threadCounter.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+			// drop cancelled timers from the delay heap right away instead of when their delay expires
+			executor.setRemoveOnCancelPolicy(true);
+			return new ExecutorTimerEngine(executor);
+		}
+	}
+
+	private static final class WheelProvider implements TimerEngine.Provider {
+
+		@Override
+		public String name() {
+			return "wheel";
+		}
+
+		@Override
+		public TimerEngine create(String threadName, int threads, long maxFireErrorMillis, UnaryOperator<String> settings) {
+			long tickMs = boundedTick("timer.wheel.tickMs", intSetting(settings, "timer.wheel.tickMs", 10), maxFireErrorMillis);
+			return new HierarchicalTimingWheel(tickMs, intSetting(settings, "timer.wheel.size", 512), threadName);
+		}
+	}
+
+	private static final class BucketProvider implements TimerEngine.Provider {
+
+		@Override
+		public String name() {
+			return "bucket";
+		}
+
+		@Override
+		public TimerEngine create(String threadName, int threads, long maxFireErrorMillis, UnaryOperator<String> settings) {
+			// half the fire-time error bound by default: coarse ticks, with room left for running a full bucket
+			int defaultTick = (int) Math.max(1L, maxFireErrorMillis / 2);
+			long tickMs = boundedTick("timer.bucket.tickMs", intSetting(settings, "timer.bucket.tickMs", defaultTick), maxFireErrorMillis);
+			return new BucketedDelayQueue(tickMs, threadName);
+		}
+	}
+}
@@ -1,179 +1,872 @@
-package com.example.timer;
-
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.time.Instant;
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.ConcurrentHashMap;
-
-/**
-	 * TimerManager: schedule appId-based tasks to run after a delay.
-	 *
-	 * Public static methods are intended to be invoked from Mule's Java module.
-	 *
-	 * - schedule(String appId, String payloadJson)  -> schedules with default 53s
-	 * - cancel(String appId)        -> cancel scheduled task
-	 * - shutdown()         -> gracefully stop the executor
-	 *
-	 * NOTE: business processing happens inside processApp().
-	 *    Optionally processApp() can make an HTTP call back to a Mule flow (Variant B).
- */
-public class TimerManager {
-	
-	private static final AtomicInteger threadCounter = new AtomicInteger(0);
-	
-	// pool with daemon threads so JVM can exit if only these running
-	private static final ScheduledExecutorService executor = Executors.newScheduledThreadPool(
-		4,
-		r -> {
-			Thread t = new Thread(r, "TimerManager-worker-" + threadCounter.incrementAndGet());
-			t.setDaemon(true);
-			return t;
-		}
-	);
-	
-	// track scheduled futures and payloads by appId
-	private static final ConcurrentHashMap<String, ScheduledFuture<?>> tasks = new ConcurrentHashMap<>();
-	private static final ConcurrentHashMap<String, String> payloads = new ConcurrentHashMap<>();
-	
-	// default schedule entrypoint used by Mule (match signature: schedule(String,String))
-	public static String schedule(String appId, String payloadJson) {
-		return schedule(appId, payloadJson, 53L);
-	}
-	
-	// overload if you want to pass different delay
-	public static String schedule(String appId, String payloadJson, long delaySeconds) {
-		if (appId == null || appId.trim().isEmpty()) {
-			throw new IllegalArgumentException("appId is required");
-		}
-		
-		// store payload
-		payloads.put(appId, payloadJson);
-		
-		// cancel previous scheduled task for same appId (optional semantics)
-		ScheduledFuture<?> previous = tasks.get(appId);
-		if (previous != null && !previous.isDone()) {
-			previous.cancel(false);
-		}
-		
-		Runnable task = () -> {
-			try {
-				// This is the processing call AFTER the delay.
-				processApp(appId, payloadJson);
-				} catch (Exception ex) {
-				ex.printStackTrace();
-				} finally {
-				// cleanup
-				tasks.remove(appId);
-				payloads.remove(appId);
-			}
-		};
-		
-		ScheduledFuture<?> future = executor.schedule(task, delaySeconds, TimeUnit.SECONDS);
-		tasks.put(appId, future);
-		
-		return "scheduled";
-	}
-	
-	/**
-		 * Retrieves the JSON payload for a currently scheduled task.
-		 * Throws an exception if the appId is missing.
-		 *
-		 * @param appId The unique identifier for the task.
-		 * @return The JSON payload as a String, or null if no task is found.
-		 * @throws IllegalArgumentException if appId is null or empty.
-	 */
-	public static String getPayload(String appId) {
-		// 1. Validate the input parameter
-		if (appId == null || appId.trim().isEmpty()) {
-			throw new IllegalArgumentException("appId is required");
-		}
-		// 2. Proceed with the lookup if validation passes
-		return payloads.get(appId);
-	}
-	
-	// Cancel a scheduled job for an appId
-	public static String cancel(String appId) {
-		ScheduledFuture<?> f = tasks.remove(appId);
-		payloads.remove(appId);
-		if (f != null) {
-			boolean cancelled = f.cancel(false);
-			return cancelled ? "cancelled" : "not_cancelled";
-		}
-		return "not_found";
-	}
-	
-	// Gracefully shutdown the executor (call from app shutdown if desired)
-	public static void shutdown() {
-		executor.shutdown();
-		try {
-			if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-				executor.shutdownNow();
-			}
-			} catch (InterruptedException e) {
-			executor.shutdownNow();
-			Thread.currentThread().interrupt();
-		}
-	}
-	
-	/**
-		 * processApp: put your processing logic here.
-		 *
-		 * Two example modes:
-		 *  - Pure Java processing (preferred if you want no additional Mule listener)
-		 *  - HTTP callback to a Mule flow (if you need the downstream logic inside Mule)
-		 *
-		 * This example shows a simple log + (optionally) an HTTP POST to /internal/process.
-	 */
-	public static void processApp(String appId, String payloadJson) {
-		Instant now = Instant.now();
-		System.out.println("TimerManager: processing appId=" + appId + " at " + now + " payload=" + payloadJson);
-		
-		// -------- OPTION A: do processing here in Java ----------
-		// Put whatever business logic you need (DB calls, REST calls, transformation).
-		// Example: just print/log. If you need to call an external service, do it here.
-		
-		// -------- OPTION B: (optional) call a Mule internal endpoint to trigger a Mule flow ----------
-		// If you prefer the processing logic inside Mule, uncomment the call below and
-		// expose a Mule HTTP listener on /internal/process (example provided in Mule config).
-		//
-		try {
-			callInternalMuleEndpoint(appId, payloadJson);
-			} catch (Exception e) {
-			e.printStackTrace();
-		}
-		
-	}
-	
-	// Optional helper: simple HTTP POST to Mule internal endpoint (if you want Variant B)
-	public static void callInternalMuleEndpoint(String appId, String payloadJson) throws Exception {
-		// Dynamic endpoint population using PropertyConfig, which loads 'config.properties'
-		String endpoint = PropertyConfig.getMuleEndpointUrl(); 
-		System.out.println("callInternalMuleEndpoint: Using dynamic endpoint: " + endpoint);
-		
-		URL url = new URL(endpoint + "?appid=" + java.net.URLEncoder.encode(appId, "UTF-8"));
-		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        // --- DYNAMIC TIMEOUTS START ---
-        // Default values: 5000ms for connection and 10000ms for read
-        int connectTimeout = PropertyConfig.getIntProperty("http.connectTimeout", 5000);
-        int readTimeout = PropertyConfig.getIntProperty("http.readTimeout", 10000);
-		
-		conn.setConnectTimeout(connectTimeout);
-		conn.setReadTimeout(readTimeout);
-        System.out.println("callInternalMuleEndpoint: Using Connect Timeout=" + connectTimeout + "ms, Read Timeout=" + readTimeout + "ms");
-        // --- DYNAMIC TIMEOUTS END ---
-		conn.setRequestMethod("POST");
-		conn.setDoOutput(true);
-		conn.setRequestProperty("Content-Type", "application/json");
-		byte[] out = payloadJson == null ? "{}".getBytes(StandardCharsets.UTF_8) : payloadJson.getBytes(StandardCharsets.UTF_8);
-		try (OutputStream os = conn.getOutputStream()) {
-			os.write(out);
-		}
-		int responseCode = conn.getResponseCode();
-		System.out.println("callInternalMuleEndpoint responseCode=" + responseCode);
-		conn.disconnect();
-	}
+package com.example.timer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.UnaryOperator;
+import java.util.zip.Deflater;
+
+/**
+	 * TimerManager: schedule appId-based tasks to run after a delay.
+	 *
+	 * Public static methods are intended to be invoked from Mule's Java module.
+	 *
+	 * - schedule(String appId, String payloadJson)  -> schedules with default 53s
+	 * - scheduleAt(String appId, String payloadJson, long epochMillis) -> schedules for an absolute instant
+	 * - scheduleMillis(String appId, InputStream/byte[] payload, long delayMillis) -> UTF-8 bytes, no String copy
+	 * - scheduleMillis(String appId, InputStream payload, Long delayMillis) -> same, a null delay uses timer.defaultDelayMs
+	 * - scheduleAll(Map appIdToPayload, long delaySeconds) -> schedules a whole batch
+	 * - cancel(String appId)        -> cancel scheduled task
+	 * - cancelAll(Collection appIds) -> cancel a whole batch
+	 * - scheduleNamed/cancelNamed/getPayloadNamed/getStatsNamed(String scheduler, ...) -> same on a named scheduler (timer.schedulers)
+	 * - shutdown()         -> gracefully stop the timer engine
+	 *
+	 * NOTE: business processing happens inside processApp().
+	 *    Optionally processApp() can make an HTTP call back to a Mule flow (Variant B).
+ */
+public class TimerManager {
+	
+	// delay used by schedule(String,String): timer.defaultDelayMs, 53s unless configured
+	private static final long defaultDelayMillis = PropertyConfig.getIntProperty("timer.defaultDelayMs", 53000);
+	
+	// fire-time error (actual fire time - deadline), bounded by timer.maxFireErrorMs
+	static final FireTimeStats fireStats = new FireTimeStats(PropertyConfig.getIntProperty("timer.maxFireErrorMs", 50));
+	
+	// bounded pool running processApp(), separate from the timer threads (bulkhead)
+	static final CallbackDispatcher callbacks = new CallbackDispatcher(PropertyConfig.getCallbackConfig());
+	
+	// callback.batch.enabled=true: fired tasks are coalesced and posted as batches instead (null otherwise)
+	static volatile CallbackBatcher batcher = createBatcher();
+	
+	// set once CallbackClientHolder has built the client; kept out of the holder, whose fields would initialize it
+	private static volatile boolean callbackClientCreated;
+	
+	// optional write-ahead log (timer.wal.dir) so pending tasks survive a restart; null when off
+	static final TimerWal wal = openWal();
+	
+	// optional disk tier (timer.tier.horizonMs > 0): far-future tasks wait on disk, not on the heap
+	static final TierStore tier = createTierStore();
+	
+	// compression of long pending payloads (timer.compress.minLength, 0 = off)
+	static final PayloadCodec codec = createCodec();
+	
+	// optional content-addressed store for payloads repeated across appIds (timer.dedup.minLength, 0 = off)
+	static final PayloadDedup dedup = createDedup();
+	
+	// pending task/payload accounting and the timer.limit.* admission limits (re-read on reload)
+	static final HeapBudget budget = createBudget();
+	
+	// fired tasks of the shards below go through fireStats and dispatch()
+	private static final SchedulerShard.Owner owner = new SchedulerShard.Owner() {
+		@Override
+		public FireTimeStats fireStats() {
+			return fireStats;
+		}
+		
+		@Override
+		public boolean dispatch(String appId, String payloadJson) {
+			return TimerManager.dispatch(appId, payloadJson);
+		}
+		
+		@Override
+		public boolean dispatch(String appId, byte[] payloadUtf8) {
+			return TimerManager.dispatch(appId, payloadUtf8);
+		}
+		
+		@Override
+		public long retryDelayNanos() {
+			return callbacks.retryDelayNanos();
+		}
+		
+		@Override
+		public SchedulerShard shardFor(String appId) {
+			return TimerManager.shardFor(appId);
+		}
+	};
+	
+	// independent scheduler shards (timer.shards, default one per core); appId is hashed to a shard
+	private static final SchedulerShard[] shards = createShards();
+	
+	// optional old-gen watch (timer.pressure.percent > 0): far-future payloads go to the tier while the heap is short
+	private static final MemoryPressure pressure = createPressure();
+	
+	// background WAL compaction into a snapshot of the live tasks; null without a WAL
+	private static final ScheduledExecutorService walCompactor = createWalCompactor();
+	
+	static {
+		// live reload: resize the callback side in place, pending timers stay where they are
+		PropertyConfig.addReloadListener(TimerManager::applyConfig);
+		recoverFromWal();
+	}
+	
+	// default schedule entrypoint used by Mule (match signature: schedule(String,String))
+	public static String schedule(String appId, String payloadJson) {
+		return schedule(appId, payloadJson, defaultDelayMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	// overload if you want to pass different delay
+	public static String schedule(String appId, String payloadJson, long delaySeconds) {
+		return schedule(appId, payloadJson, delaySeconds, TimeUnit.SECONDS);
+	}
+	
+	// millisecond-resolution delay (match signature: scheduleMillis(String,String,long))
+	public static String scheduleMillis(String appId, String payloadJson, long delayMillis) {
+		return schedule(appId, payloadJson, delayMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+		 * Schedules a task for an absolute wall-clock instant, e.g. a target time computed by the
+		 * caller, so time spent in the Mule flow before this call does not shift the fire time.
+		 *
+		 * The instant is converted once into a monotonic deadline, so later wall-clock adjustments
+		 * (NTP, DST) do not move it. Instants in the past fire immediately.
+		 *
+		 * @param appId The unique identifier for the task.
+		 * @param payloadJson The JSON payload handed to processApp().
+		 * @param epochMillis The target instant in milliseconds since the epoch.
+		 * @return "scheduled", or "throttled"/"rejected" if the timer.limit.* limits refused the task.
+		 * @throws IllegalArgumentException if appId is null or empty.
+	 */
+	public static String scheduleAt(String appId, String payloadJson, long epochMillis) {
+		return schedule(appId, payloadJson, epochMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+		 * Full-resolution overload, every other schedule variant ends up here.
+		 *
+		 * @return "scheduled"; "throttled" if a soft limit (timer.limit.softTasks/softBytes) is exceeded
+		 *         and appId is not pending yet, "rejected" if the task would exceed a hard limit. A refused
+		 *         task is not scheduled (a pending task for appId is kept as it was); retry it later.
+		 *         With timer.wal.durability=sync, "scheduled_not_durable" if the task is scheduled but its
+		 *         log record could not be forced to disk within timer.wal.syncTimeoutMs.
+		 * @throws IllegalArgumentException if appId is null or empty.
+	 */
+	public static String schedule(String appId, String payloadJson, long delay, TimeUnit unit) {
+		if (appId == null || appId.trim().isEmpty()) {
+			throw new IllegalArgumentException("appId is required");
+		}
+		
+		long now = System.nanoTime();
+		return shardFor(appId).schedule(appId, payloadJson, now + TimerEngine.delayNanos(delay, unit), now);
+	}
+	
+	/**
+		 * Byte-oriented variant (match signature: scheduleMillis(String,byte[],long)): the UTF-8 JSON
+		 * body is stored as given and later written to the callback request as is, without a
+		 * String copy or a transcode. The array must not be modified after the call.
+		 *
+		 * @param appId The unique identifier for the task.
+		 * @param payloadUtf8 The payload as UTF-8 JSON bytes; null posts "{}".
+		 * @param delayMillis The delay in milliseconds.
+		 * @return "scheduled", or "throttled"/"rejected" if the timer.limit.* limits refused the task.
+		 * @throws IllegalArgumentException if appId is null or empty.
+	 */
+	public static String scheduleMillis(String appId, byte[] payloadUtf8, long delayMillis) {
+		return schedule(appId, payloadUtf8, delayMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+		 * Stream variant (match signature: scheduleMillis(String,java.io.InputStream,long)), e.g. for the
+		 * raw HTTP body in Mule: the stream is read to the end once and stored like the byte[] variant.
+		 *
+		 * @throws UncheckedIOException if the stream cannot be read.
+	 */
+	public static String scheduleMillis(String appId, InputStream payloadUtf8, long delayMillis) {
+		byte[] payload;
+		try {
+			payload = payloadUtf8 == null ? null : payloadUtf8.readAllBytes();
+		} catch (IOException ex) {
+			throw new UncheckedIOException("cannot read the payload of appId=" + appId, ex);
+		}
+		return schedule(appId, payload, delayMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+		 * Stream variant with an optional delay (match signature:
+		 * scheduleMillis(String,java.io.InputStream,java.lang.Long)), for callers without a delay of their own.
+		 *
+		 * @param delayMillis The delay in milliseconds; null uses timer.defaultDelayMs.
+		 * @throws UncheckedIOException if the stream cannot be read.
+	 */
+	public static String scheduleMillis(String appId, InputStream payloadUtf8, Long delayMillis) {
+		return scheduleMillis(appId, payloadUtf8, delayMillis == null ? defaultDelayMillis : delayMillis.longValue());
+	}
+	
+	// full-resolution byte overload
+	public static String schedule(String appId, byte[] payloadUtf8, long delay, TimeUnit unit) {
+		if (appId == null || appId.trim().isEmpty()) {
+			throw new IllegalArgumentException("appId is required");
+		}
+		
+		long now = System.nanoTime();
+		return shardFor(appId).schedule(appId, payloadUtf8, now + TimerEngine.delayNanos(delay, unit), now);
+	}
+	
+	/**
+		 * Bulk entrypoint: schedules every appId -> payloadJson of the map with the same delay
+		 * in a single invocation from Mule (match signature: scheduleAll(java.util.Map,long)).
+		 *
+		 * All appIds are validated before anything is scheduled, the deadline is computed once
+		 * for the whole batch and each shard receives its part of the batch as one group.
+		 *
+		 * @param payloadsByAppId appId -> payload JSON.
+		 * @param delaySeconds The delay applied to every task of the batch.
+		 * @return appId -> status ("scheduled", "throttled" or "rejected", see schedule()), in the iteration order of the input map.
+		 * @throws IllegalArgumentException if the map is null or contains a null or empty appId.
+	 */
+	public static Map<String, String> scheduleAll(Map<String, String> payloadsByAppId, long delaySeconds) {
+		if (payloadsByAppId == null) {
+			throw new IllegalArgumentException("payloadsByAppId is required");
+		}
+		for (String appId : payloadsByAppId.keySet()) {
+			if (appId == null || appId.trim().isEmpty()) {
+				throw new IllegalArgumentException("appId is required");
+			}
+		}
+		
+		// pre-filled in input order, the shards fill in the statuses
+		Map<String, String> results = new LinkedHashMap<>();
+		for (String appId : payloadsByAppId.keySet()) {
+			results.put(appId, "scheduled");
+		}
+		List<List<String>> byShard = groupByShard(payloadsByAppId.keySet());
+		long now = System.nanoTime();
+		long deadlineNanos = now + TimerEngine.delayNanos(delaySeconds, TimeUnit.SECONDS);
+		for (int i = 0; i < shards.length; i++) {
+			List<String> appIds = byShard.get(i);
+			if (appIds != null) {
+				shards[i].scheduleAll(appIds, payloadsByAppId, deadlineNanos, now, results);
+			}
+		}
+		return results;
+	}
+	
+	/**
+		 * Retrieves the JSON payload for a currently scheduled task.
+		 * Throws an exception if the appId is missing.
+		 *
+		 * @param appId The unique identifier for the task.
+		 * @return The JSON payload as a String, or null if no task is found.
+		 * @throws IllegalArgumentException if appId is null or empty.
+	 */
+	public static String getPayload(String appId) {
+		// 1. Validate the input parameter
+		if (appId == null || appId.trim().isEmpty()) {
+			throw new IllegalArgumentException("appId is required");
+		}
+		// 2. Proceed with the lookup if validation passes
+		return shardFor(appId).getPayload(appId);
+	}
+	
+	// Cancel a scheduled job for an appId
+	public static String cancel(String appId) {
+		return shardFor(appId).cancel(appId);
+	}
+	
+	/**
+		 * Bulk cancel (match signature: cancelAll(java.util.Collection)).
+		 *
+		 * @param appIds The appIds to cancel; null or empty ids are reported as "not_found".
+		 * @return appId -> status ("cancelled", "not_cancelled" or "not_found"), in input order.
+		 * @throws IllegalArgumentException if appIds is null.
+	 */
+	public static Map<String, String> cancelAll(Collection<String> appIds) {
+		if (appIds == null) {
+			throw new IllegalArgumentException("appIds is required");
+		}
+		Map<String, String> results = new LinkedHashMap<>();
+		for (String appId : appIds) {
+			results.put(String.valueOf(appId), "not_found");
+		}
+		List<List<String>> byShard = groupByShard(appIds);
+		for (int i = 0; i < shards.length; i++) {
+			List<String> shardAppIds = byShard.get(i);
+			if (shardAppIds != null) {
+				shards[i].cancelAll(shardAppIds, results);
+			}
+		}
+		return results;
+	}
+	
+	/**
+		 * Schedules a task on a named scheduler (one of timer.schedulers) with that scheduler's
+		 * default delay. A named scheduler has its own timer engine, shards, callback pool,
+		 * timer.limit.* limits and callback endpoint (scheduler.[name].* properties over the
+		 * shared ones), so its workload does not compete with the default scheduler or other
+		 * named ones. Its tasks are kept in memory only (no WAL, disk tier or off-heap arena).
+		 *
+		 * @param scheduler The scheduler name (e.g., "notifications").
+		 * @return "scheduled", or "throttled"/"rejected" if the scheduler's limits refused the task.
+		 * @throws IllegalArgumentException if appId is null or empty, or the scheduler is not configured.
+		 * @throws IllegalStateException after shutdown().
+	 */
+	public static String scheduleNamed(String scheduler, String appId, String payloadJson) {
+		Scheduler target = Scheduler.named(scheduler);
+		return target.schedule(appId, payloadJson, target.defaultDelayMillis(), TimeUnit.MILLISECONDS);
+	}
+	
+	// named scheduler, millisecond delay (match signature: scheduleNamed(String,String,String,long))
+	public static String scheduleNamed(String scheduler, String appId, String payloadJson, long delayMillis) {
+		return Scheduler.named(scheduler).schedule(appId, payloadJson, delayMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+		 * Stream variant for a named scheduler (match signature:
+		 * scheduleNamed(String,String,java.io.InputStream,java.lang.Long)), e.g. for the raw HTTP body.
+		 *
+		 * @param delayMillis The delay in milliseconds; null uses the scheduler's timer.defaultDelayMs.
+		 * @throws UncheckedIOException if the stream cannot be read.
+	 */
+	public static String scheduleNamed(String scheduler, String appId, InputStream payloadUtf8, Long delayMillis) {
+		Scheduler target = Scheduler.named(scheduler);
+		byte[] payload;
+		try {
+			payload = payloadUtf8 == null ? null : payloadUtf8.readAllBytes();
+		} catch (IOException ex) {
+			throw new UncheckedIOException("cannot read the payload of appId=" + appId, ex);
+		}
+		return target.schedule(appId, payload, delayMillis == null ? target.defaultDelayMillis() : delayMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	// Cancel a job of a named scheduler
+	public static String cancelNamed(String scheduler, String appId) {
+		return Scheduler.named(scheduler).cancel(appId);
+	}
+	
+	// Payload of a pending task of a named scheduler, null if none
+	public static String getPayloadNamed(String scheduler, String appId) {
+		return Scheduler.named(scheduler).getPayload(appId);
+	}
+	
+	// Statistics of one named scheduler, same metrics as getStats() where they apply
+	public static Map<String, Object> getStatsNamed(String scheduler) {
+		return Scheduler.named(scheduler).getStats();
+	}
+	
+	/**
+		 * Scheduler statistics for monitoring (pending tasks and fire-time error).
+		 *
+		 * @return A map of metric name -> value.
+	 */
+	public static Map<String, Object> getStats() {
+		long pending = 0;
+		Map<String, Object> arenaStats = new LinkedHashMap<>();
+		for (SchedulerShard shard : shards) {
+			pending += shard.pendingCount();
+			shard.addArenaStats(arenaStats);
+		}
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("shards", shards.length);
+		stats.put("pending", pending);
+		stats.putAll(budget.snapshot());
+		stats.putAll(arenaStats);
+		if (codec.isEnabled()) {
+			stats.putAll(codec.snapshot());
+		}
+		if (dedup != null) {
+			stats.putAll(dedup.snapshot());
+		}
+		stats.putAll(fireStats.snapshot());
+		stats.putAll(callbacks.snapshot());
+		CallbackBatcher currentBatcher = batcher;
+		if (currentBatcher != null) {
+			stats.putAll(currentBatcher.snapshot());
+		}
+		if (wal != null) {
+			stats.putAll(wal.snapshot());
+		}
+		if (tier != null) {
+			stats.putAll(tier.snapshot());
+		}
+		if (pressure != null) {
+			stats.putAll(pressure.snapshot());
+		}
+		stats.put("schedulers", Scheduler.names());
+		return stats;
+	}
+	
+	/**
+		 * Reloads the configuration (classpath file plus the -Dmule.config.override file) and
+		 * applies it live: callback pool size, in-flight limit, retry delay, HTTP client
+		 * settings, batching and the timer.limit.* task limits, for the default scheduler and
+		 * every named one that is running. Scheduled tasks are kept.
+		 *
+		 * Engine, shard and default-delay settings are read once and need a restart.
+		 *
+		 * @return The applied callback configuration, for logging by the admin flow.
+	 */
+	public static String reloadConfig() {
+		return PropertyConfig.reload().toString();
+	}
+	
+	private static synchronized void applyConfig(CallbackConfig config) {
+		configureBudget(budget, PropertyConfig::getProperty, "TimerManager");
+		callbacks.reconfigure(config);
+		// a reload must not be what builds the client
+		if (callbackClientCreated) {
+			CallbackClientHolder.reconfigure(config);
+		}
+		CallbackBatcher current = batcher;
+		if (config.batchEnabled() && current != null) {
+			current.reconfigure(config.batchMaxSize(), config.batchWindowMillis());
+		} else if (config.batchEnabled()) {
+			batcher = createBatcher();
+		} else if (current != null) {
+			// stop handing tasks to the batcher first, then let it flush what it already holds
+			batcher = null;
+			current.shutdown();
+			System.out.println("TimerManager: callback batching disabled");
+		}
+	}
+	
+	// Gracefully shutdown every shard's timer engine and the callback pool (call from app shutdown if desired)
+	public static void shutdown() {
+		Scheduler.shutdownAll();
+		for (SchedulerShard shard : shards) {
+			shard.shutdown();
+		}
+		CallbackBatcher currentBatcher = batcher;
+		if (currentBatcher != null) {
+			currentBatcher.shutdown();
+		}
+		callbacks.shutdown();
+		if (walCompactor != null) {
+			walCompactor.shutdownNow();
+		}
+		if (pressure != null) {
+			pressure.shutdown();
+		}
+		if (tier != null) {
+			tier.shutdown();
+		}
+		if (wal != null) {
+			wal.shutdown();
+		}
+	}
+	
+	// Hand a fired task to the batcher or the callback pool; false if neither can take it right now.
+	static boolean dispatch(String appId, String payloadJson) {
+		CallbackBatcher currentBatcher = batcher;
+		if (currentBatcher != null) {
+			return currentBatcher.offer(appId, payloadJson);
+		}
+		return callbacks.dispatch(appId, payloadJson);
+	}
+	
+	// Byte variant: the bytes go to the callback body as they are; batches embed payloads as text, so they decode.
+	static boolean dispatch(String appId, byte[] payloadUtf8) {
+		CallbackBatcher currentBatcher = batcher;
+		if (currentBatcher != null) {
+			return currentBatcher.offer(appId, new String(payloadUtf8, StandardCharsets.UTF_8));
+		}
+		return callbacks.dispatch(appId, payloadUtf8);
+	}
+	
+	private static TimerWal openWal() {
+		String directory = PropertyConfig.getProperty("timer.wal.dir");
+		if (directory.isEmpty()) {
+			return null;
+		}
+		try {
+			return TimerWal.open(Paths.get(directory),
+				Math.max(1, PropertyConfig.getIntProperty("timer.wal.queueCapacity", 100000)),
+				TimerWal.parseDurability(PropertyConfig.getProperty("timer.wal.durability")),
+				Math.max(1, PropertyConfig.getIntProperty("timer.wal.fsyncIntervalMs", 100)),
+				Math.max(1, PropertyConfig.getIntProperty("timer.wal.syncTimeoutMs", 5000)));
+		} catch (IOException | RuntimeException ex) {
+			System.err.println("TimerManager: cannot open write-ahead log in " + directory + ", pending tasks will not be persisted: " + ex);
+			return null;
+		}
+	}
+	
+	// Re-schedule what was pending at the last stop; tasks whose deadline passed while down fire right away.
+	private static void recoverFromWal() {
+		if (wal == null) {
+			return;
+		}
+		Map<String, TimerWal.Record> pending = wal.recover();
+		long now = System.currentTimeMillis();
+		long nowNanos = System.nanoTime();
+		int overdue = 0;
+		for (TimerWal.Record record : pending.values()) {
+			long delayMillis = record.deadlineEpochMillis - now;
+			if (delayMillis <= 0) {
+				overdue++;
+			}
+			// no per-task fsync wait in sync mode: the flush below forces the whole re-logged set once
+			shardFor(record.appId).recover(record.appId, record.payload,
+				nowNanos + TimerEngine.delayNanos(delayMillis, TimeUnit.MILLISECONDS), nowNanos);
+		}
+		wal.deleteReplayedSegments();
+		System.out.println("TimerManager: recovered " + pending.size() + " pending task(s) from the write-ahead log, " + overdue + " overdue");
+	}
+	
+	private static TierStore createTierStore() {
+		long horizonMillis = PropertyConfig.getIntProperty("timer.tier.horizonMs", 0);
+		if (horizonMillis <= 0 && PropertyConfig.getIntProperty("timer.pressure.percent", 0) <= 0) {
+			return null;
+		}
+		if (horizonMillis <= 0) {
+			// memory-pressure spilling only: nothing is far enough to go to disk otherwise
+			horizonMillis = Long.MAX_VALUE;
+		}
+		String directory = PropertyConfig.getProperty("timer.tier.dir");
+		try {
+			return new TierStore(
+				directory.isEmpty() ? Paths.get(System.getProperty("java.io.tmpdir"), "timer-tier") : Paths.get(directory),
+				horizonMillis,
+				Math.max(1, PropertyConfig.getIntProperty("timer.tier.bucketMs", 60000)),
+				Math.max(1, PropertyConfig.getIntProperty("timer.tier.queueCapacity", 100000)));
+		} catch (IOException | RuntimeException ex) {
+			System.err.println("TimerManager: cannot open the disk tier, all tasks stay in memory: " + ex);
+			return null;
+		}
+	}
+	
+	private static MemoryPressure createPressure() {
+		int percent = PropertyConfig.getIntProperty("timer.pressure.percent", 0);
+		if (percent <= 0) {
+			return null;
+		}
+		if (tier == null) {
+			System.err.println("TimerManager: timer.pressure.percent needs the disk tier, which could not be opened; memory-pressure spilling is off");
+			return null;
+		}
+		return MemoryPressure.start(Math.min(percent, 99),
+			PropertyConfig.getIntProperty("timer.pressure.clearPercent", Math.max(1, percent - 15)),
+			Math.max(0, PropertyConfig.getIntProperty("timer.pressure.horizonMs", 60000)),
+			tier);
+	}
+	
+	/**
+		 * Memory pressure: hands the payloads of armed tasks due beyond horizonNanos to the disk
+		 * tier, farthest deadline first, as many as the tier queue has room for.
+		 *
+		 * @return The number of tasks spilled.
+	 */
+	static int spillFarthest(long horizonNanos) {
+		int room = tier.remainingCapacity();
+		if (room == 0) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		SchedulerShard.SpillCandidates candidates = new SchedulerShard.SpillCandidates(room);
+		for (SchedulerShard shard : shards) {
+			shard.collectSpillable(horizonNanos, now, candidates);
+		}
+		int spilled = 0;
+		for (TaskEntry entry : candidates.farthestFirst()) {
+			if (entry.shard.spill(entry, horizonNanos)) {
+				spilled++;
+			} else if (tier.isFull()) {
+				break;
+			}
+		}
+		return spilled;
+	}
+	
+	private static ScheduledExecutorService createWalCompactor() {
+		if (wal == null) {
+			return null;
+		}
+		long intervalMillis = Math.max(1000, PropertyConfig.getIntProperty("timer.wal.compactIntervalMs", 60000));
+		long thresholdBytes = Math.max(0, PropertyConfig.getIntProperty("timer.wal.compactBytes", 64 * 1024 * 1024));
+		ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "TimerManager-wal-compactor");
+			t.setDaemon(true);
+			return t;
+		});
+		compactor.scheduleWithFixedDelay(() -> {
+			try {
+				if (wal.bytesSinceCompaction() >= thresholdBytes) {
+					compactWal();
+				}
+			} catch (RuntimeException ex) {
+				ex.printStackTrace();
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		return compactor;
+	}
+	
+	/**
+		 * Rewrites the write-ahead log as a snapshot of the live tasks.
+		 *
+		 * Every shard is paused only while the log is rolled, so each logged change lands
+		 * entirely before the roll (and is visible to the iteration below) or after it (and is
+		 * in the new segment, which is replayed on top of the snapshot). The snapshot itself is
+		 * written from a weakly consistent iteration while scheduling goes on.
+	 */
+	static void compactWal() {
+		long[] stamps = new long[shards.length];
+		TimerWal.Record roll;
+		for (int i = 0; i < shards.length; i++) {
+			stamps[i] = shards[i].pauseLogging();
+		}
+		try {
+			roll = wal.roll();
+		} finally {
+			for (int i = 0; i < shards.length; i++) {
+				shards[i].resumeLogging(stamps[i]);
+			}
+		}
+		if (roll == null) {
+			// not worth stalling every shard for: the next compaction round tries again
+			System.err.println("TimerManager: write-ahead log queue full, compaction skipped");
+			return;
+		}
+		wal.writeSnapshot(roll, writer -> {
+			for (SchedulerShard shard : shards) {
+				shard.forEachPending(writer);
+			}
+		});
+	}
+	
+	private static CallbackBatcher createBatcher() {
+		CallbackConfig config = PropertyConfig.getCallbackConfig();
+		if (!config.batchEnabled()) {
+			return null;
+		}
+		System.out.println("TimerManager: batching callbacks, maxSize=" + config.batchMaxSize() + ", window=" + config.batchWindowMillis() + "ms");
+		return new CallbackBatcher(config.batchMaxSize(), config.batchWindowMillis(), config.queueCapacity(), callbacks);
+	}
+	
+	private static SchedulerShard shardFor(String appId) {
+		return shards[shardIndex(appId)];
+	}
+	
+	private static int shardIndex(String appId) {
+		return SchedulerShard.indexFor(appId, shards.length);
+	}
+	
+	// Split a batch into one list per shard (null where a shard gets nothing); null/empty ids are skipped.
+	private static List<List<String>> groupByShard(Collection<String> appIds) {
+		List<List<String>> byShard = new ArrayList<>(Collections.nCopies(shards.length, (List<String>) null));
+		for (String appId : appIds) {
+			if (appId == null || appId.trim().isEmpty()) {
+				continue;
+			}
+			int index = shardIndex(appId);
+			List<String> group = byShard.get(index);
+			if (group == null) {
+				group = new ArrayList<>();
+				byShard.set(index, group);
+			}
+			group.add(appId);
+		}
+		return byShard;
+	}
+	
+	private static PayloadCodec createCodec() {
+		int minLength = PropertyConfig.getIntProperty("timer.compress.minLength", 0);
+		int level = PropertyConfig.getIntProperty("timer.compress.level", Deflater.BEST_SPEED);
+		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+			System.err.println("TimerManager: timer.compress.level=" + level + " is not a deflate level (1-9), using " + Deflater.BEST_SPEED);
+			level = Deflater.BEST_SPEED;
+		}
+		if (minLength > 0) {
+			System.out.println("TimerManager: compressing pending payloads of " + minLength + "+ characters, level " + level);
+		}
+		return new PayloadCodec(minLength, level);
+	}
+	
+	private static PayloadDedup createDedup() {
+		int minLength = PropertyConfig.getIntProperty("timer.dedup.minLength", 0);
+		if (minLength <= 0) {
+			return null;
+		}
+		System.out.println("TimerManager: sharing identical payloads of " + minLength + "+ characters between tasks");
+		return new PayloadDedup(minLength, codec);
+	}
+	
+	private static HeapBudget createBudget() {
+		HeapBudget created = new HeapBudget();
+		configureBudget(created, PropertyConfig::getProperty, "TimerManager");
+		return created;
+	}
+	
+	// timer.limit.*: 0 (the default) turns a limit off; the pending counts are kept across reloads
+	static void configureBudget(HeapBudget target, UnaryOperator<String> properties, String label) {
+		target.reconfigure(
+			limitProperty(properties, "timer.limit.softTasks"),
+			limitProperty(properties, "timer.limit.hardTasks"),
+			limitProperty(properties, "timer.limit.softBytes"),
+			limitProperty(properties, "timer.limit.hardBytes"));
+		if (target.isLimited()) {
+			System.out.println(label + ": pending task limits " + target);
+		}
+	}
+	
+	private static long limitProperty(UnaryOperator<String> properties, String key) {
+		return Math.max(0L, PropertyConfig.toLong(key, properties.apply(key), 0L));
+	}
+	
+	private static SchedulerShard[] createShards() {
+		int shardCount = Math.max(1, PropertyConfig.getIntProperty("timer.shards", Runtime.getRuntime().availableProcessors()));
+		int threadsPerShard = Math.max(1, PropertyConfig.getIntProperty("timer.shard.threads", 1));
+		TimerEngine.Provider engine = TimerEngines.provider(PropertyConfig.getProperty("timer.engine"));
+		boolean lazyReschedule = "lazy".equalsIgnoreCase(PropertyConfig.getProperty("timer.reschedule"));
+		System.out.println("TimerManager: starting " + shardCount + " shard(s), engine=" + engine.name()
+			+ ", threads per shard=" + threadsPerShard + ", reschedule=" + (lazyReschedule ? "lazy" : "eager"));
+		
+		boolean offHeap = Boolean.parseBoolean(PropertyConfig.getProperty("timer.arena.enabled"));
+		int slabBytes = Math.max(64, PropertyConfig.getIntProperty("timer.arena.slabBytes", 16 * 1024 * 1024));
+		// timer.arena.maxBytes is the total, each shard's arena gets an equal share
+		long maxBytesPerShard = Math.max(slabBytes, PropertyConfig.getLongProperty("timer.arena.maxBytes", 1024L * 1024 * 1024) / shardCount);
+		if (offHeap) {
+			System.out.println("TimerManager: payloads off-heap in " + slabBytes + "-byte slabs, up to " + maxBytesPerShard + " bytes per shard");
+		}
+		
+		SchedulerShard[] created = new SchedulerShard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			PayloadArena arena = offHeap ? new PayloadArena(slabBytes, maxBytesPerShard) : null;
+			TimerEngine shardEngine = engine.create("TimerManager-" + engine.name() + "-" + i, threadsPerShard, fireStats.boundMillis(), PropertyConfig::getProperty);
+			created[i] = new SchedulerShard(i, shardEngine, lazyReschedule, wal, tier, arena, codec, dedup, budget, owner);
+		}
+		return created;
+	}
+	
+	/**
+		 * processApp: put your processing logic here.
+		 *
+		 * Two example modes:
+		 *  - Pure Java processing (preferred if you want no additional Mule listener)
+		 *  - HTTP callback to a Mule flow (if you need the downstream logic inside Mule)
+		 *
+		 * This example shows a simple log + (optionally) an HTTP POST to /internal/process.
+		 *
+		 * @return A future completing when the processing is done (the callback keeps its
+		 *         callback.maxInFlight permit until then), or null if it was done synchronously.
+	 */
+	public static CompletableFuture<Integer> processApp(String appId, String payloadJson) {
+		Instant now = Instant.now();
+		System.out.println("TimerManager: processing appId=" + appId + " at " + now + " payload=" + payloadJson);
+		
+		// -------- OPTION A: do processing here in Java ----------
+		// Put whatever business logic you need (DB calls, REST calls, transformation).
+		// Example: just print/log. If you need to call an external service, do it here.
+		
+		// -------- OPTION B: (optional) call a Mule internal endpoint to trigger a Mule flow ----------
+		// If you prefer the processing logic inside Mule, uncomment the call below and
+		// expose a Mule HTTP listener on /internal/process (example provided in Mule config).
+		//
+		// The call is asynchronous: the callback thread returns as soon as the request is handed
+		// to the HTTP client, the outcome is logged when the response arrives. Returning the
+		// future keeps the request counted against callback.maxInFlight until then.
+		return callInternalMuleEndpointAsync(appId, payloadJson).whenComplete((responseCode, error) -> {
+			if (error != null) {
+				System.err.println("callInternalMuleEndpoint failed for appId=" + appId + ": " + error);
+			} else {
+				System.out.println("callInternalMuleEndpoint responseCode=" + responseCode);
+			}
+		});
+	}
+	
+	/**
+		 * processApp for tasks whose payload is held as UTF-8 bytes (byte[]/InputStream schedule
+		 * variants, off-heap, compressed or shared payloads). Option B posts the bytes as they are;
+		 * Option A logic that needs text can decode them with new String(payloadUtf8, UTF_8).
+	 */
+	public static CompletableFuture<Integer> processApp(String appId, byte[] payloadUtf8) {
+		Instant now = Instant.now();
+		System.out.println("TimerManager: processing appId=" + appId + " at " + now + " payload=" + payloadUtf8.length + " bytes");
+		
+		// -------- OPTION A: do processing here in Java ----------
+		
+		// -------- OPTION B: call the Mule internal endpoint with the bytes as request body ----------
+		return callInternalMuleEndpointAsync(appId, payloadUtf8).whenComplete((responseCode, error) -> {
+			if (error != null) {
+				System.err.println("callInternalMuleEndpoint failed for appId=" + appId + ": " + error);
+			} else {
+				System.out.println("callInternalMuleEndpoint responseCode=" + responseCode);
+			}
+		});
+	}
+	
+	/**
+		 * processBatch: batch counterpart of processApp(), used when callback.batch.enabled=true.
+		 *
+		 * Receives every task that came due within one batching window (appId -> payload, in
+		 * fire order) and posts them as a single JSON array to the batch endpoint (http.batchPath).
+		 *
+		 * @return A future completing when the batch is processed (the batch keeps a
+		 *         callback.maxInFlight permit until then), or null if it was done synchronously.
+	 */
+	public static CompletableFuture<Integer> processBatch(List<Map.Entry<String, String>> batch) {
+		System.out.println("TimerManager: processing batch of " + batch.size() + " task(s) at " + Instant.now());
+		
+		return callInternalMuleEndpointBatchAsync(batch).whenComplete((responseCode, error) -> {
+			if (error != null) {
+				System.err.println("callInternalMuleEndpoint failed for batch of " + batch.size() + ": " + error);
+			} else {
+				System.out.println("callInternalMuleEndpoint batch of " + batch.size() + " responseCode=" + responseCode);
+			}
+		});
+	}
+	
+	// Optional helper: HTTP POST to Mule internal endpoint (if you want Variant B), blocks until the response
+	public static void callInternalMuleEndpoint(String appId, String payloadJson) throws Exception {
+		int responseCode = callInternalMuleEndpointAsync(appId, payloadJson).get();
+		System.out.println("callInternalMuleEndpoint responseCode=" + responseCode);
+	}
+	
+	/**
+		 * Non-blocking HTTP POST to the Mule internal endpoint over the shared, pooled client.
+		 *
+		 * @return A future completing with the response code (or exceptionally on I/O errors and timeouts).
+	 */
+	public static CompletableFuture<Integer> callInternalMuleEndpointAsync(String appId, String payloadJson) {
+		try {
+			return CallbackClientHolder.client.post(appId, payloadJson);
+		} catch (RuntimeException ex) {
+			// e.g. missing endpoint properties: report through the future like any other failure
+			return CompletableFuture.failedFuture(ex);
+		}
+	}
+	
+	// Byte variant of callInternalMuleEndpointAsync: the bytes are the request body as is.
+	public static CompletableFuture<Integer> callInternalMuleEndpointAsync(String appId, byte[] payloadUtf8) {
+		try {
+			return CallbackClientHolder.client.post(appId, payloadUtf8);
+		} catch (RuntimeException ex) {
+			return CompletableFuture.failedFuture(ex);
+		}
+	}
+	
+	// Non-blocking HTTP POST of a whole batch as one JSON array to the Mule batch endpoint.
+	public static CompletableFuture<Integer> callInternalMuleEndpointBatchAsync(List<Map.Entry<String, String>> batch) {
+		try {
+			return CallbackClientHolder.client.postBatch(batch);
+		} catch (RuntimeException ex) {
+			return CompletableFuture.failedFuture(ex);
+		}
+	}
+	
+	// lazily created on the first callback (holder class initialization), so Option A deployments never build an HTTP client
+	private static final class CallbackClientHolder {
+		static volatile CallbackClient client = create();
+		
+		private static CallbackClient create() {
+			CallbackClient created = new CallbackClient(PropertyConfig.getCallbackConfig());
+			callbackClientCreated = true;
+			return created;
+		}
+		
+		// new connect timeout or HTTP version: swap in a fresh client, in-flight requests finish on the old one
+		static void reconfigure(CallbackConfig config) {
+			if (!client.matches(config)) {
+				client = new CallbackClient(config);
+			}
+		}
+	}
+
 }
\ No newline at end of file
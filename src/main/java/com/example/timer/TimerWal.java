@@ -0,0 +1,902 @@
+package com.example.timer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * TimerWal: optional append-only write-ahead log of the pending timers.
+ *
+ * With timer.wal.dir set, every schedule, cancel and fire is appended to a log
+ * segment in that directory, so pending appIds survive a Mule restart or
+ * redeploy. Each record is a small binary frame:
+ *
+ *   int length | int CRC32C of the body | body
+ *   body = byte type | long deadline (epoch ms, SCHEDULE only) | appId | payload (SCHEDULE only)
+ *
+ * with appId and payload written as int length + UTF-8 bytes (-1 for a null
+ * payload). Deadlines are stored on the wall clock, the monotonic clock does not
+ * survive a restart.
+ *
+ * Callers only enqueue a record; the single "TimerManager-wal" thread drains
+ * whatever has queued up, encodes it into one buffer and writes it with one
+ * call (group commit), so schedule() never waits on the disk. If the writer
+ * falls behind by timer.wal.queueCapacity records, further records are dropped
+ * and counted (walDropped) instead of blocking the caller.
+ *
+ * timer.wal.durability decides when the segment is forced to stable storage:
+ * - none: never explicitly; the OS page cache survives a process restart but
+ *   not a power loss
+ * - async: every timer.wal.fsyncIntervalMs, so at most that window is lost
+ * - sync: after every group write; schedule() and cancel() wait until their
+ *   record is forced, and every caller queued meanwhile shares the same fsync.
+ *   Here a caller first waits for queue space (awaitCapacity()), before it
+ *   takes any shard lock; append() itself never blocks, as it runs inside the
+ *   shard map's compute(). A record dropped anyway is reported not durable.
+ *
+ * Compaction (TimerManager, every timer.wal.compactIntervalMs once
+ * timer.wal.compactBytes have been logged) keeps the log from growing with the
+ * schedule history: roll() starts segment n while no logged change is in
+ * flight, then writeSnapshot() stores every live task in snapshot-n.snap
+ * (MAGIC | entries | int count | int CRC32C) and deletes the segments and
+ * snapshots before n. A change made while the snapshot is written is also in
+ * segment n, and replaying it on top of the snapshot gives the same state.
+ *
+ * On startup the newest valid snapshot is loaded through a read-only memory
+ * mapping (no read() copies), the segments from its number on are replayed in
+ * order (a torn or corrupt tail ends the replay of its segment), the surviving
+ * tasks are scheduled again into a fresh segment and the replayed files are
+ * deleted. Until then append() waits for queue space in every durability mode,
+ * and the replayed files are kept if a record was dropped anyway. Restart time is bounded by the live tasks plus the segments logged
+ * since the last compaction.
+ */
+final class TimerWal {
+
+	static final byte SCHEDULE = 1;
+	static final byte CANCEL = 2;
+	static final byte FIRE = 3;
+	// flush() marker, never written
+	private static final byte BARRIER = 0;
+	// roll() marker: payload is the file name of the next segment
+	private static final byte ROLL = -1;
+
+	static final int DURABILITY_NONE = 0;
+	static final int DURABILITY_ASYNC = 1;
+	static final int DURABILITY_SYNC = 2;
+	private static final String[] DURABILITY_NAMES = {"none", "async", "sync"};
+
+	// "TWL1", first four bytes of every segment
+	private static final int MAGIC = 0x54574C31;
+	private static final String SEGMENT_PREFIX = "timer-";
+	private static final String SEGMENT_SUFFIX = ".wal";
+	// "TWS1", first four bytes of every snapshot
+	private static final int SNAPSHOT_MAGIC = 0x54575331;
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".snap";
+	private static final int BUFFER_SIZE = 256 * 1024;
+	private static final int MAX_DRAIN = 4096;
+
+	private final Path directory;
+	// segments and snapshots found at open(), replayed by recover() and deleted once their tasks are re-logged
+	private final List<Path> replaySegments;
+	private final List<Path> replaySnapshots;
+	private final AtomicLong nextSegment;
+	// current segment; the channel is only used by the writer thread
+	private volatile Path segment;
+	private FileChannel channel;
+	private final LinkedBlockingQueue<Record> queue;
+	private final int durability;
+	private final long fsyncIntervalNanos;
+	// sync mode: longest a caller waits for its record to be forced
+	private final long syncTimeoutNanos;
+	private final Thread writer;
+	private volatile boolean running = true;
+
+	private final LongAdder records = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder writeErrors = new LongAdder();
+	private final LongAdder writes = new LongAdder();
+	private final LongAdder fsyncs = new LongAdder();
+	private final LongAdder syncTimeouts = new LongAdder();
+	// from recover() to deleteReplayedSegments(): append() blocks instead of dropping
+	private volatile boolean recovering;
+	// dropped.sum() when recover() started
+	private volatile long droppedAtRecovery;
+	private final LongAdder snapshots = new LongAdder();
+	private volatile long snapshotEntries;
+	private volatile long lastCompactionMillis;
+	// bytes.sum() when the last compaction rolled the log
+	private volatile long bytesAtCompaction;
+	// sync mode: awaitCapacity() callers wait on it, the writer notifies after each drain
+	private final Object capacity = new Object();
+	private final AtomicLong lastWarningNanos = new AtomicLong(System.nanoTime() - TimeUnit.SECONDS.toNanos(1));
+
+	private TimerWal(Path directory, List<Path> replaySegments, List<Path> replaySnapshots, long segmentNumber,
+			Path segment, FileChannel channel, int queueCapacity, int durability, long fsyncIntervalMillis, long syncTimeoutMillis) {
+		this.directory = directory;
+		this.replaySegments = replaySegments;
+		this.replaySnapshots = replaySnapshots;
+		this.nextSegment = new AtomicLong(segmentNumber + 1);
+		this.segment = segment;
+		this.channel = channel;
+		this.queue = new LinkedBlockingQueue<>(queueCapacity);
+		this.durability = durability;
+		this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+		this.syncTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(syncTimeoutMillis);
+		this.writer = new Thread(this::run, "TimerManager-wal");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Opens the log in the given directory: existing segments and snapshots are kept for
+	 * recover(), new records go to a new segment numbered after the last existing file.
+	 */
+	static TimerWal open(Path directory, int queueCapacity, int durability, long fsyncIntervalMillis, long syncTimeoutMillis) throws IOException {
+		Files.createDirectories(directory);
+		List<Path> existing = listFiles(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+		List<Path> existingSnapshots = listFiles(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+		long last = 0;
+		if (!existing.isEmpty()) {
+			last = fileNumber(existing.get(existing.size() - 1), SEGMENT_PREFIX, SEGMENT_SUFFIX);
+		}
+		if (!existingSnapshots.isEmpty()) {
+			last = Math.max(last, fileNumber(existingSnapshots.get(existingSnapshots.size() - 1), SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX));
+		}
+		Path segment = directory.resolve(fileName(SEGMENT_PREFIX, last + 1, SEGMENT_SUFFIX));
+		FileChannel channel = openSegment(segment);
+		System.out.println("TimerWal: logging to " + segment + ", durability=" + DURABILITY_NAMES[durability]
+			+ ", " + existing.size() + " segment(s) and " + existingSnapshots.size() + " snapshot(s) to replay");
+		return new TimerWal(directory, existing, existingSnapshots, last + 1, segment, channel, queueCapacity,
+			durability, fsyncIntervalMillis, syncTimeoutMillis);
+	}
+
+	private static FileChannel openSegment(Path segment) throws IOException {
+		FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC);
+		header.flip();
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		return channel;
+	}
+
+	// timer.wal.durability value -> DURABILITY_* (anything unknown means none)
+	static int parseDurability(String value) {
+		for (int i = 0; i < DURABILITY_NAMES.length; i++) {
+			if (DURABILITY_NAMES[i].equalsIgnoreCase(value)) {
+				return i;
+			}
+		}
+		return DURABILITY_NONE;
+	}
+
+	boolean isSync() {
+		return durability == DURABILITY_SYNC;
+	}
+
+	/**
+	 * Queues a SCHEDULE record; deadlineNanos is System.nanoTime() based and stored as an epoch instant.
+	 *
+	 * @return The queued record, to be passed to awaitDurable() outside of any map lock.
+	 */
+	Record appendSchedule(String appId, String payloadJson, long deadlineNanos) {
+		long deadlineEpochMillis = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+		return append(new Record(SCHEDULE, appId, payloadJson, deadlineEpochMillis));
+	}
+
+	// Byte variant: the UTF-8 payload goes into the frame as is (replayed as a String like any other).
+	Record appendSchedule(String appId, byte[] payloadUtf8, long deadlineNanos) {
+		long deadlineEpochMillis = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+		Record record = new Record(SCHEDULE, appId, null, deadlineEpochMillis);
+		record.payloadBytes = payloadUtf8;
+		return append(record);
+	}
+
+	Record appendCancel(String appId) {
+		return append(new Record(CANCEL, appId, null, 0L));
+	}
+
+	void appendFire(String appId) {
+		append(new Record(FIRE, appId, null, 0L));
+	}
+
+	// Never blocks outside of recovery: callers hold the shard's bin and log locks (see awaitCapacity()).
+	private Record append(Record record) {
+		if (running && (recovering ? put(record) : queue.offer(record))) {
+			return record;
+		}
+		record.complete(Record.FAILED);
+		dropped.increment();
+		long now = System.nanoTime();
+		long last = lastWarningNanos.get();
+		if (now - last >= TimeUnit.SECONDS.toNanos(1) && lastWarningNanos.compareAndSet(last, now)) {
+			System.err.println("TimerWal: writer queue full, " + dropped.sum() + " record(s) not logged so far");
+		}
+		return record;
+	}
+
+	// Recovery only: nothing else is logged yet, and the writer drains the queue without any shard lock.
+	private boolean put(Record record) {
+		try {
+			queue.put(record);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * In sync mode, waits until the writer queue has room, up to timer.wal.syncTimeoutMs; a no-op
+	 * otherwise. Called before taking any shard lock, so a full queue stalls only this caller.
+	 *
+	 * @return false if the queue stayed full (the caller's record will most likely be dropped).
+	 */
+	boolean awaitCapacity() {
+		if (durability != DURABILITY_SYNC || queue.remainingCapacity() > 0) {
+			return true;
+		}
+		long deadline = System.nanoTime() + syncTimeoutNanos;
+		synchronized (capacity) {
+			while (running && queue.remainingCapacity() == 0) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				try {
+					TimeUnit.NANOSECONDS.timedWait(capacity, remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * In sync mode, blocks until the record has been forced to disk; a no-op otherwise.
+	 *
+	 * @return false if the record could not be made durable (queue full, write error or timeout).
+	 */
+	boolean awaitDurable(Record record) {
+		if (record == null || durability != DURABILITY_SYNC) {
+			return true;
+		}
+		if (!record.await(syncTimeoutNanos)) {
+			syncTimeouts.increment();
+			return false;
+		}
+		return record.status == Record.DURABLE;
+	}
+
+	/**
+	 * Waits until every record queued so far has been written and forced to disk.
+	 *
+	 * @return false if the writer did not get there within the timeout.
+	 */
+	boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+		Record barrier = new Record(BARRIER, null, null, 0L);
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		return queue.offer(barrier, timeout, unit)
+			&& barrier.await(deadline - System.nanoTime())
+			&& barrier.status == Record.DURABLE;
+	}
+
+	/**
+	 * Loads the newest valid snapshot and replays the segments logged from it on.
+	 *
+	 * @return appId -> last SCHEDULE record of every task that was neither cancelled nor fired, in log order.
+	 */
+	Map<String, Record> recover() {
+		droppedAtRecovery = dropped.sum();
+		recovering = true;
+		Map<String, Record> pending = new LinkedHashMap<>();
+		long base = 0;
+		for (int i = replaySnapshots.size() - 1; i >= 0; i--) {
+			Path snapshot = replaySnapshots.get(i);
+			if (loadSnapshot(snapshot, pending)) {
+				base = fileNumber(snapshot, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+				break;
+			}
+			pending.clear();
+		}
+		for (Path replay : replaySegments) {
+			if (fileNumber(replay, SEGMENT_PREFIX, SEGMENT_SUFFIX) < base) {
+				// already part of the snapshot, left over by an interrupted compaction
+				continue;
+			}
+			int count = 0;
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(replay), BUFFER_SIZE))) {
+				long remaining = Files.size(replay) - 4;
+				if (remaining < 0 || in.readInt() != MAGIC) {
+					System.err.println("TimerWal: " + replay + " is not a timer log, skipped");
+					continue;
+				}
+				CRC32C crc = new CRC32C();
+				while (remaining > 0) {
+					int length = in.readInt();
+					int checksum = in.readInt();
+					remaining -= 8;
+					if (length <= 0 || length > remaining) {
+						System.err.println("TimerWal: torn record at the end of " + replay + ", replay of this segment stops here");
+						break;
+					}
+					byte[] body = new byte[length];
+					in.readFully(body);
+					remaining -= length;
+					crc.reset();
+					crc.update(body, 0, length);
+					if ((int) crc.getValue() != checksum) {
+						System.err.println("TimerWal: checksum mismatch in " + replay + ", replay of this segment stops here");
+						break;
+					}
+					Record record = decode(ByteBuffer.wrap(body));
+					if (record.type == SCHEDULE) {
+						// re-insert so the map keeps the order of the latest schedule
+						pending.remove(record.appId);
+						pending.put(record.appId, record);
+					} else {
+						pending.remove(record.appId);
+					}
+					count++;
+				}
+			} catch (EOFException ex) {
+				System.err.println("TimerWal: " + replay + " ends inside a record, replay of this segment stops here");
+			} catch (IOException | RuntimeException ex) {
+				System.err.println("TimerWal: error replaying " + replay + ": " + ex);
+			}
+			System.out.println("TimerWal: replayed " + count + " record(s) from " + replay);
+		}
+		return pending;
+	}
+
+	// Zero-copy load: the snapshot is mapped read-only and decoded straight from the mapping.
+	private static boolean loadSnapshot(Path snapshot, Map<String, Record> pending) {
+		try (FileChannel in = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+			long size = in.size();
+			if (size < 12 || size > Integer.MAX_VALUE) {
+				System.err.println("TimerWal: " + snapshot + " has an invalid size, skipped");
+				return false;
+			}
+			MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			int end = (int) size;
+			CRC32C crc = new CRC32C();
+			crc.update(mapped.duplicate().position(4).limit(end - 4));
+			if (mapped.getInt(0) != SNAPSHOT_MAGIC || mapped.getInt(end - 4) != (int) crc.getValue()) {
+				System.err.println("TimerWal: " + snapshot + " is corrupt, skipped");
+				return false;
+			}
+			int count = mapped.getInt(end - 8);
+			ByteBuffer entries = mapped.duplicate().position(4).limit(end - 8);
+			for (int i = 0; i < count; i++) {
+				long deadlineEpochMillis = entries.getLong();
+				String appId = readString(entries);
+				pending.put(appId, new Record(SCHEDULE, appId, readString(entries), deadlineEpochMillis));
+			}
+			System.out.println("TimerWal: loaded " + count + " task(s) from " + snapshot);
+			return true;
+		} catch (IOException | RuntimeException ex) {
+			System.err.println("TimerWal: error loading " + snapshot + ": " + ex);
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes the replayed segments once everything logged since open() (including
+	 * the re-scheduled recovered tasks) is on disk, and ends recovery.
+	 */
+	void deleteReplayedSegments() {
+		try {
+			if (!flush(30, TimeUnit.SECONDS)) {
+				System.err.println("TimerWal: writer did not catch up, keeping the replayed segments");
+				return;
+			}
+			long lost = dropped.sum() - droppedAtRecovery;
+			if (lost > 0) {
+				// the new segment misses some recovered tasks: the next restart replays both again
+				System.err.println("TimerWal: " + lost + " record(s) dropped during recovery, keeping the replayed segments");
+				return;
+			}
+			for (Path replay : replaySegments) {
+				Files.deleteIfExists(replay);
+			}
+			for (Path replay : replaySnapshots) {
+				Files.deleteIfExists(replay);
+			}
+			replaySegments.clear();
+			replaySnapshots.clear();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (IOException ex) {
+			System.err.println("TimerWal: cannot delete replayed segments in " + directory + ": " + ex);
+		} finally {
+			recovering = false;
+		}
+	}
+
+	long bytesSinceCompaction() {
+		return bytes.sum() - bytesAtCompaction;
+	}
+
+	/**
+	 * Compaction step 1: every record queued after this call goes to a new segment.
+	 * The caller must make sure no logged state change is in flight meanwhile.
+	 * Never blocks: the caller holds every shard's log lock exclusively.
+	 *
+	 * @return The queued marker for writeSnapshot(), or null if the writer queue is full.
+	 */
+	Record roll() {
+		long number = nextSegment.getAndIncrement();
+		Record marker = new Record(ROLL, null, fileName(SEGMENT_PREFIX, number, SEGMENT_SUFFIX), 0L);
+		if (!queue.offer(marker)) {
+			// the unused segment number only leaves a gap, segments are ordered by number
+			return null;
+		}
+		bytesAtCompaction = bytes.sum();
+		return marker;
+	}
+
+	/**
+	 * Compaction step 2: writes the live tasks reported by source into snapshot-n.snap (n being
+	 * the segment started by roll) and deletes the segments and snapshots it supersedes.
+	 */
+	boolean writeSnapshot(Record roll, Consumer<SnapshotWriter> source) {
+		long started = System.nanoTime();
+		long number = fileNumber(directory.resolve(roll.payload), SEGMENT_PREFIX, SEGMENT_SUFFIX);
+		Path snapshot = directory.resolve(fileName(SNAPSHOT_PREFIX, number, SNAPSHOT_SUFFIX));
+		Path temporary = directory.resolve(snapshot.getFileName() + ".tmp");
+		try {
+			// the older segments must be complete on disk before the snapshot may replace them
+			if (!roll.await(TimeUnit.SECONDS.toNanos(30)) || roll.status != Record.DURABLE) {
+				System.err.println("TimerWal: log roll did not complete, compaction skipped");
+				return false;
+			}
+			int count;
+			try (SnapshotWriter writer = new SnapshotWriter(temporary)) {
+				source.accept(writer);
+				count = writer.finish();
+			}
+			Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			for (Path old : listFiles(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+				if (fileNumber(old, SEGMENT_PREFIX, SEGMENT_SUFFIX) < number) {
+					Files.deleteIfExists(old);
+				}
+			}
+			for (Path old : listFiles(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+				if (fileNumber(old, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < number) {
+					Files.deleteIfExists(old);
+				}
+			}
+			snapshots.increment();
+			snapshotEntries = count;
+			lastCompactionMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+			System.out.println("TimerWal: compacted into " + snapshot + ", " + count + " live task(s) in " + lastCompactionMillis + "ms");
+			return true;
+		} catch (IOException | UncheckedIOException ex) {
+			System.err.println("TimerWal: compaction into " + snapshot + " failed: " + ex);
+			try {
+				Files.deleteIfExists(temporary);
+			} catch (IOException ignored) {
+				// best effort, a stale .tmp file is never read
+			}
+			return false;
+		}
+	}
+
+	private void run() {
+		List<Record> batch = new ArrayList<>(MAX_DRAIN);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		long pollNanos = durability == DURABILITY_ASYNC ? Math.min(fsyncIntervalNanos, TimeUnit.MILLISECONDS.toNanos(100)) : TimeUnit.MILLISECONDS.toNanos(100);
+		long lastForceNanos = System.nanoTime();
+		boolean dirty = false;
+		try {
+			while (running || !queue.isEmpty()) {
+				try {
+					Record first = queue.poll(pollNanos, TimeUnit.NANOSECONDS);
+					if (first != null) {
+						// group commit: everything that queued up while the last write/force ran goes out together
+						batch.add(first);
+						queue.drainTo(batch, MAX_DRAIN - 1);
+						if (durability == DURABILITY_SYNC) {
+							synchronized (capacity) {
+								capacity.notifyAll();
+							}
+						}
+						// a forced group also covers everything written before it
+						dirty = write(batch, buffer);
+					}
+					if (dirty && durability == DURABILITY_ASYNC && System.nanoTime() - lastForceNanos >= fsyncIntervalNanos) {
+						force();
+						dirty = false;
+						lastForceNanos = System.nanoTime();
+					}
+				} catch (IOException ex) {
+					writeErrors.increment();
+					System.err.println("TimerWal: error forcing " + segment + ": " + ex);
+				} catch (InterruptedException e) {
+					running = false;
+				} finally {
+					batch.clear();
+				}
+			}
+		} finally {
+			try {
+				channel.force(false);
+				channel.close();
+			} catch (IOException ex) {
+				System.err.println("TimerWal: error closing " + segment + ": " + ex);
+			}
+		}
+	}
+
+	/**
+	 * Writes one group of records with as few write calls as the buffer allows; in
+	 * sync mode the group is forced and its callers released.
+	 *
+	 * @return true if records were written but not forced yet.
+	 */
+	private boolean write(List<Record> batch, ByteBuffer buffer) {
+		boolean forced = false;
+		boolean barrier = false;
+		// end of the last complete group in the current segment: a failed group is cut back to it
+		long goodPosition = -1;
+		try {
+			goodPosition = channel.position();
+			for (Record record : batch) {
+				if (record.type == BARRIER) {
+					barrier = true;
+					continue;
+				}
+				if (record.type == ROLL) {
+					drain(buffer);
+					force();
+					switchSegment(directory.resolve(record.payload));
+					goodPosition = channel.position();
+					continue;
+				}
+				ByteBuffer target = buffer;
+				int size = record.frameSize();
+				if (size > buffer.remaining()) {
+					drain(buffer);
+					if (size > buffer.capacity()) {
+						// oversized payload: encode into its own buffer
+						target = ByteBuffer.allocate(size);
+					}
+				}
+				encode(record, target);
+				if (target != buffer) {
+					drain(target);
+				}
+				records.increment();
+				bytes.add(size);
+			}
+			drain(buffer);
+			writes.increment();
+			if (durability == DURABILITY_SYNC || barrier) {
+				force();
+				forced = true;
+			}
+			complete(batch, Record.DURABLE);
+			return !forced;
+		} catch (IOException ex) {
+			buffer.clear();
+			writeErrors.increment();
+			System.err.println("TimerWal: error writing " + segment + ": " + ex);
+			discardPartialWrite(goodPosition);
+			complete(batch, Record.FAILED);
+			return true;
+		}
+	}
+
+	/**
+	 * Removes what a failed group left in the segment, so the records logged after it
+	 * are not behind a torn frame that stops replay. If the segment cannot be cut back,
+	 * the writer moves on to a new one and replay of the old one stops at the tear.
+	 */
+	private void discardPartialWrite(long goodPosition) {
+		try {
+			if (goodPosition >= 0) {
+				channel.truncate(goodPosition);
+				channel.position(goodPosition);
+				return;
+			}
+		} catch (IOException ex) {
+			System.err.println("TimerWal: cannot truncate " + segment + " to " + goodPosition + ": " + ex);
+		}
+		try {
+			switchSegment(directory.resolve(fileName(SEGMENT_PREFIX, nextSegment.getAndIncrement(), SEGMENT_SUFFIX)));
+			System.err.println("TimerWal: continuing in " + segment);
+		} catch (IOException ex) {
+			System.err.println("TimerWal: cannot start a new segment in " + directory + ": " + ex);
+		}
+	}
+
+	private void switchSegment(Path next) throws IOException {
+		FileChannel opened = openSegment(next);
+		FileChannel previous = channel;
+		channel = opened;
+		segment = next;
+		previous.close();
+	}
+
+	private void force() throws IOException {
+		channel.force(false);
+		fsyncs.increment();
+	}
+
+	// release the callers waiting on this group (sync mode and flush() barriers only)
+	private void complete(List<Record> batch, int status) {
+		for (Record record : batch) {
+			if (durability == DURABILITY_SYNC || record.type <= BARRIER) {
+				record.complete(status);
+			}
+		}
+	}
+
+	private void drain(ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private static void encode(Record record, ByteBuffer buffer) {
+		int start = buffer.position();
+		buffer.position(start + 8);
+		buffer.put(record.type);
+		if (record.type == SCHEDULE) {
+			buffer.putLong(record.deadlineEpochMillis);
+		}
+		buffer.putInt(record.appIdBytes.length).put(record.appIdBytes);
+		if (record.type == SCHEDULE) {
+			if (record.payloadBytes == null) {
+				buffer.putInt(-1);
+			} else {
+				buffer.putInt(record.payloadBytes.length).put(record.payloadBytes);
+			}
+		}
+		int end = buffer.position();
+		CRC32C crc = new CRC32C();
+		crc.update(buffer.duplicate().position(start + 8).limit(end));
+		buffer.putInt(start, end - start - 8);
+		buffer.putInt(start + 4, (int) crc.getValue());
+	}
+
+	private static Record decode(ByteBuffer body) {
+		byte type = body.get();
+		long deadlineEpochMillis = type == SCHEDULE ? body.getLong() : 0L;
+		String appId = readString(body);
+		String payload = type == SCHEDULE ? readString(body) : null;
+		return new Record(type, appId, payload, deadlineEpochMillis);
+	}
+
+	private static String readString(ByteBuffer body) {
+		int length = body.getInt();
+		if (length < 0) {
+			return null;
+		}
+		if (!body.hasArray()) {
+			// mapped snapshot
+			byte[] bytes = new byte[length];
+			body.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		String value = new String(body.array(), body.arrayOffset() + body.position(), length, StandardCharsets.UTF_8);
+		body.position(body.position() + length);
+		return value;
+	}
+
+	private static List<Path> listFiles(Path directory, String prefix, String suffix) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+			for (Path path : stream) {
+				files.add(path);
+			}
+		}
+		// fixed-width numbers: name order is log order
+		files.sort(null);
+		return files;
+	}
+
+	private static String fileName(String prefix, long number, String suffix) {
+		return String.format("%s%016d%s", prefix, number, suffix);
+	}
+
+	private static long fileNumber(Path file, String prefix, String suffix) {
+		String name = file.getFileName().toString();
+		return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+	}
+
+	Map<String, Object> snapshot() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("walRecords", records.sum());
+		stats.put("walBytes", bytes.sum());
+		stats.put("walQueued", queue.size());
+		stats.put("walDropped", dropped.sum());
+		stats.put("walWriteErrors", writeErrors.sum());
+		stats.put("walDurability", DURABILITY_NAMES[durability]);
+		stats.put("walWrites", writes.sum());
+		stats.put("walFsyncs", fsyncs.sum());
+		long fsyncCount = fsyncs.sum();
+		// records per fsync: how well concurrent callers share the group commit
+		stats.put("walRecordsPerFsync", fsyncCount == 0 ? 0L : records.sum() / fsyncCount);
+		stats.put("walSyncTimeouts", syncTimeouts.sum());
+		stats.put("walSegment", segment.getFileName().toString());
+		stats.put("walBytesSinceCompaction", bytesSinceCompaction());
+		stats.put("walSnapshots", snapshots.sum());
+		stats.put("walSnapshotEntries", snapshotEntries);
+		stats.put("walLastCompactionMs", lastCompactionMillis);
+		return stats;
+	}
+
+	// Writes everything still queued, then closes the segment; pending tasks stay in the log for the next start.
+	void shutdown() {
+		running = false;
+		try {
+			// not interrupted: an interrupt during FileChannel.write would close the channel
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Streams live tasks into a snapshot file; entries are encoded like SCHEDULE bodies
+	 * without the type byte, count and CRC32C are appended by finish().
+	 */
+	static final class SnapshotWriter implements AutoCloseable {
+		private final FileChannel out;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		private final CRC32C crc = new CRC32C();
+		private int count;
+
+		private SnapshotWriter(Path file) throws IOException {
+			this.out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			buffer.putInt(SNAPSHOT_MAGIC);
+		}
+
+		void add(String appId, String payloadJson, long deadlineNanos) {
+			byte[] appIdBytes = appId.getBytes(StandardCharsets.UTF_8);
+			byte[] payloadBytes = payloadJson == null ? null : payloadJson.getBytes(StandardCharsets.UTF_8);
+			long deadlineEpochMillis = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+			int size = 16 + appIdBytes.length + (payloadBytes == null ? 0 : payloadBytes.length);
+			try {
+				ByteBuffer target = buffer;
+				if (size > buffer.remaining()) {
+					write(buffer);
+					if (size > buffer.capacity()) {
+						// oversized payload: encode into its own buffer
+						target = ByteBuffer.allocate(size);
+					}
+				}
+				target.putLong(deadlineEpochMillis);
+				target.putInt(appIdBytes.length).put(appIdBytes);
+				if (payloadBytes == null) {
+					target.putInt(-1);
+				} else {
+					target.putInt(payloadBytes.length).put(payloadBytes);
+				}
+				if (target != buffer) {
+					write(target);
+				}
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			count++;
+		}
+
+		private void write(ByteBuffer source) throws IOException {
+			source.flip();
+			// the magic number is not covered by the checksum
+			int skip = out.position() == 0 ? 4 : 0;
+			crc.update(source.duplicate().position(skip));
+			while (source.hasRemaining()) {
+				out.write(source);
+			}
+			source.clear();
+		}
+
+		private int finish() throws IOException {
+			if (buffer.remaining() < 4) {
+				write(buffer);
+			}
+			buffer.putInt(count);
+			write(buffer);
+			ByteBuffer trailer = ByteBuffer.allocate(4).putInt(0, (int) crc.getValue());
+			while (trailer.hasRemaining()) {
+				out.write(trailer);
+			}
+			out.force(false);
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	static final class Record {
+		final byte type;
+		final String appId;
+		final String payload;
+		final long deadlineEpochMillis;
+		// encoded on the writer thread, not by the scheduling caller
+		private byte[] appIdBytes;
+		private byte[] payloadBytes;
+
+		static final int PENDING = 0;
+		static final int DURABLE = 1;
+		static final int FAILED = 2;
+		// only tracked for sync mode and flush() barriers
+		private volatile int status = PENDING;
+		private volatile Thread waiter;
+
+		Record(byte type, String appId, String payload, long deadlineEpochMillis) {
+			this.type = type;
+			this.appId = appId;
+			this.payload = payload;
+			this.deadlineEpochMillis = deadlineEpochMillis;
+		}
+
+		private void complete(int status) {
+			this.status = status;
+			Thread waiting = waiter;
+			if (waiting != null) {
+				LockSupport.unpark(waiting);
+			}
+		}
+
+		// status is written before waiter is read and vice versa, so either complete() sees us or we see its status
+		private boolean await(long timeoutNanos) {
+			waiter = Thread.currentThread();
+			long deadline = System.nanoTime() + timeoutNanos;
+			while (status == PENDING) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				LockSupport.parkNanos(this, remaining);
+			}
+			return true;
+		}
+
+		private int frameSize() {
+			appIdBytes = appId.getBytes(StandardCharsets.UTF_8);
+			int size = 8 + 1 + 4 + appIdBytes.length;
+			if (type == SCHEDULE) {
+				if (payload != null) {
+					payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+				}
+				size += 8 + 4 + (payloadBytes == null ? 0 : payloadBytes.length);
+			}
+			return size;
+		}
+	}
+}
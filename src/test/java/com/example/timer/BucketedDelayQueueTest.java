@@ -0,0 +1,91 @@
+package com.example.timer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Firing behaviour of the bucketed delay queue engine.
+ */
+class BucketedDelayQueueTest {
+
+	private final BucketedDelayQueue engine = new BucketedDelayQueue(1, "test-reaper");
+
+	@AfterEach
+	void shutdown() {
+		engine.shutdown();
+	}
+
+	@Test
+	void hugeDelaysNeitherFireNorStallOtherTimers() throws Exception {
+		AtomicInteger hugeRuns = new AtomicInteger();
+		TimerEngine.Handle millis = engine.schedule(hugeRuns::incrementAndGet, Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		TimerEngine.Handle seconds = engine.schedule(hugeRuns::incrementAndGet, 10_000_000_000L, TimeUnit.SECONDS);
+		CountDownLatch fired = new CountDownLatch(1);
+		engine.schedule(fired::countDown, 50, TimeUnit.MILLISECONDS);
+
+		assertTrue(fired.await(2, TimeUnit.SECONDS));
+		assertEquals(0, hugeRuns.get());
+		assertFalse(millis.isDone());
+		assertFalse(seconds.isDone());
+	}
+
+	@Test
+	void neverFiresBeforeTheDelay() throws Exception {
+		int count = 500;
+		CountDownLatch fired = new CountDownLatch(count);
+		AtomicLong early = new AtomicLong();
+		for (int i = 0; i < count; i++) {
+			long delayNanos = TimeUnit.MICROSECONDS.toNanos(ThreadLocalRandom.current().nextInt(0, 100_000));
+			long start = System.nanoTime();
+			engine.schedule(() -> {
+				if (System.nanoTime() - start < delayNanos) {
+					early.incrementAndGet();
+				}
+				fired.countDown();
+			}, delayNanos, TimeUnit.NANOSECONDS);
+		}
+
+		assertTrue(fired.await(5, TimeUnit.SECONDS));
+		assertEquals(0, early.get());
+	}
+
+	@Test
+	void cancelRacingWithExpiryRunsEachTimerAtMostOnce() throws Exception {
+		int count = 20_000;
+		AtomicIntegerArray runs = new AtomicIntegerArray(count);
+		TimerEngine.Handle[] handles = new TimerEngine.Handle[count];
+		for (int i = 0; i < count; i++) {
+			int index = i;
+			handles[i] = engine.schedule(() -> runs.incrementAndGet(index), i % 3, TimeUnit.MILLISECONDS);
+		}
+		// cancel while the same ticks are being expired
+		boolean[] cancelled = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			cancelled[i] = handles[i].cancel();
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		for (int i = 0; i < count; i++) {
+			while (!cancelled[i] && runs.get(i) == 0 && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+		}
+		// a late run of a cancelled timer would show up here
+		Thread.sleep(50);
+		for (int i = 0; i < count; i++) {
+			assertTrue(handles[i].isDone());
+			assertEquals(cancelled[i] ? 0 : 1, runs.get(i));
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.example.timer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The JSON syntax check behind callback batches and the array CallbackClient posts for them.
+ */
+class CallbackClientTest {
+
+	@Test
+	void acceptsValidValues() {
+		for (String json : new String[] {
+			"{}", "[]", "0", "-0.5e+10", "1E3", "true", "false", "null", "\"\"", " {\"a\" : [1, 2.5, null]} \n",
+			"{\"s\":\"q\\\"\\\\\\/\\b\\f\\n\\r\\t\\u00e9\",\"n\":{\"m\":[{}]}}", "\"caf\u00e9 \u2713\""}) {
+			assertTrue(CallbackClient.JsonSyntax.isValue(json), json);
+		}
+	}
+
+	@Test
+	void rejectsInvalidValues() {
+		for (String json : new String[] {
+			"", " ", "{", "{\"a\":1", "[1,2", "\"open", "{\"a\":1,}", "[1,]", "{a:1}", "{\"a\" 1}",
+			"{} {}", "[1] x", "01", "1.", "-", "+1", ".5", "1e", "tru", "nul", "True", "'a'",
+			"\"\\x\"", "\"\\u12\"", "\"\\u12g4\"", "\"\\u\u0661\u0662\u0663\u0664\"", "\"tab\there\"", "hello"}) {
+			assertFalse(CallbackClient.JsonSyntax.isValue(json), json);
+		}
+	}
+
+	@Test
+	void deepNestingIsInvalidWithoutOverflowingTheStack() {
+		int depth = 100_000;
+		String nested = "[".repeat(depth) + "]".repeat(depth);
+		assertFalse(CallbackClient.JsonSyntax.isValue(nested));
+		assertTrue(CallbackClient.JsonSyntax.isValue("[".repeat(100) + "]".repeat(100)));
+	}
+
+	@Test
+	void batchEmbedsValidPayloadsAndQuotesTheRest() {
+		List<Map.Entry<String, String>> batch = List.of(
+			task("a", "{\"v\":1}"),
+			task("b", "{\"v\":"),
+			task("c", "plain \"text\"\n"),
+			task("d", ""),
+			task("e\"", "[1,2]"));
+		String json = new String(CallbackClient.toJsonArray(batch), StandardCharsets.UTF_8);
+		assertEquals("[{\"appId\":\"a\",\"payload\":{\"v\":1}},"
+			+ "{\"appId\":\"b\",\"payload\":\"{\\\"v\\\":\"},"
+			+ "{\"appId\":\"c\",\"payload\":\"plain \\\"text\\\"\\u000a\"},"
+			+ "{\"appId\":\"d\",\"payload\":{}},"
+			+ "{\"appId\":\"e\\\"\",\"payload\":[1,2]}]", json);
+		assertTrue(CallbackClient.JsonSyntax.isValue(json));
+	}
+
+	private static Map.Entry<String, String> task(String appId, String payload) {
+		return new AbstractMap.SimpleImmutableEntry<>(appId, payload);
+	}
+}
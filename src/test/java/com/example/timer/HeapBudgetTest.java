@@ -0,0 +1,108 @@
+package com.example.timer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Soft and hard timer.limit.* limits of HeapBudget and the statuses SchedulerShard reports for them.
+ */
+class HeapBudgetTest {
+
+	private final HeapBudget budget = new HeapBudget();
+
+	@Test
+	void softTaskLimitThrottlesNewAppIdsOnly() {
+		budget.reconfigure(2, 0, 0, 0);
+		assertNull(budget.admit(true, 10));
+		assertNull(budget.admit(true, 10));
+		assertEquals(HeapBudget.THROTTLED, budget.admit(true, 10));
+		// a reschedule of a pending appId still goes through
+		assertNull(budget.admit(false, 10));
+		assertEquals(1L, stat("throttledTasks"));
+		assertEquals(30L, stat("pendingPayloadBytes"));
+	}
+
+	@Test
+	void hardTaskLimitRejects() {
+		budget.reconfigure(1, 2, 0, 0);
+		assertNull(budget.admit(true, 0));
+		assertEquals(HeapBudget.THROTTLED, budget.admit(true, 0));
+		// past the soft limit only through recovery or retries, which bypass admit()
+		budget.add(1, 0);
+		assertEquals(HeapBudget.REJECTED, budget.admit(true, 0));
+		assertEquals(1L, stat("throttledTasks"));
+		assertEquals(1L, stat("rejectedTasks"));
+	}
+
+	@Test
+	void hardByteLimitRejectsPayloadGrowth() {
+		budget.reconfigure(0, 0, 0, 100);
+		assertNull(budget.admit(true, 80));
+		assertEquals(HeapBudget.REJECTED, budget.admit(false, 30));
+		assertEquals(HeapBudget.REJECTED, budget.admit(true, 30));
+		// shrinking a payload is never refused
+		assertNull(budget.admit(false, -20));
+		assertNull(budget.admit(true, 30));
+		assertEquals(90L, stat("pendingPayloadBytes"));
+	}
+
+	@Test
+	void softByteLimitThrottlesNewAppIds() {
+		budget.reconfigure(0, 0, 50, 0);
+		assertNull(budget.admit(true, 40));
+		assertEquals(HeapBudget.THROTTLED, budget.admit(true, 20));
+		assertNull(budget.admit(false, 20));
+		assertEquals(60L, stat("pendingPayloadBytes"));
+	}
+
+	@Test
+	void releasedSharesMakeRoomAgain() {
+		budget.reconfigure(0, 1, 0, 0);
+		assertNull(budget.admit(true, 5));
+		assertEquals(HeapBudget.REJECTED, budget.admit(true, 5));
+		// the refusal reserved nothing
+		assertEquals(5L, stat("pendingPayloadBytes"));
+		budget.add(-1, -5);
+		assertNull(budget.admit(true, 5));
+	}
+
+	@Test
+	void zeroLimitsAreOff() {
+		budget.reconfigure(0, 0, 0, 0);
+		for (int i = 0; i < 1000; i++) {
+			assertNull(budget.admit(true, 1000));
+		}
+		assertEquals(0L, stat("throttledTasks"));
+		assertEquals(0L, stat("rejectedTasks"));
+	}
+
+	@Test
+	void shardReportsRefusalsAndKeepsNothing() {
+		HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(1, 64, "test-wheel");
+		SchedulerShardTest.RecordingOwner owner = new SchedulerShardTest.RecordingOwner();
+		SchedulerShard shard = owner.shard(new SchedulerShard(0, wheel, false, null, null, null,
+			new PayloadCodec(0, 1), null, budget, owner));
+		try {
+			budget.reconfigure(1, 2, 0, 0);
+			long now = System.nanoTime();
+			long deadlineNanos = now + TimeUnit.MINUTES.toNanos(10);
+			assertEquals("scheduled", shard.schedule("a", "{}", deadlineNanos, now));
+			assertEquals(HeapBudget.THROTTLED, shard.schedule("b", "{}", deadlineNanos, now));
+			assertEquals("scheduled", shard.schedule("a", "{\"v\":2}", deadlineNanos, now));
+			budget.reconfigure(0, 1, 0, 0);
+			assertEquals(HeapBudget.REJECTED, shard.schedule("c", "{}", deadlineNanos, now));
+			assertEquals(1, shard.pendingCount());
+			assertEquals("not_found", shard.cancel("b"));
+		} finally {
+			shard.shutdown();
+		}
+	}
+
+	private long stat(String name) {
+		return ((Number) budget.snapshot().get(name)).longValue();
+	}
+}
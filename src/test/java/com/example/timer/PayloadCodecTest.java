@@ -0,0 +1,31 @@
+package com.example.timer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pack and unpack round trips of PayloadCodec around the size of its header.
+ */
+class PayloadCodecTest {
+
+	@Test
+	void payloadsNoLongerThanTheHeaderStayRaw() {
+		// minLength 1: every payload is offered to the deflater
+		PayloadCodec codec = new PayloadCodec(1, 1);
+		for (String payload : new String[] {"", "a", "{}", "[1]", "\"ab\"", "aaaaa", "aaaaaa", "a".repeat(64)}) {
+			byte[] packed = codec.pack(payload);
+			assertEquals(payload, codec.unpack(packed));
+			assertArrayEquals(payload.getBytes(StandardCharsets.UTF_8), codec.unpackBytes(packed));
+			if (payload.length() <= 5) {
+				assertFalse(PayloadCodec.isCompressed(packed), payload);
+			}
+		}
+		assertTrue(PayloadCodec.isCompressed(codec.pack("a".repeat(64))));
+	}
+}
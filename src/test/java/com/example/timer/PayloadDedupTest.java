@@ -0,0 +1,94 @@
+package com.example.timer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Reference counting of PayloadDedup as SchedulerShard cancels, replaces and fires the tasks sharing a payload.
+ */
+class PayloadDedupTest {
+
+	private static final String SHARED = "{\"template\":\"reminder\",\"locale\":\"en\"}";
+
+	private static final String OTHER = "{\"template\":\"expiry\",\"locale\":\"en\"}";
+
+	private final HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(1, 64, "test-wheel");
+
+	private final PayloadDedup dedup = new PayloadDedup(1, new PayloadCodec(0, 1));
+
+	private final SchedulerShardTest.RecordingOwner owner = new SchedulerShardTest.RecordingOwner();
+
+	@AfterEach
+	void shutdown() {
+		wheel.shutdown();
+	}
+
+	@Test
+	void cancelAndReplaceReleaseTheirReferences() {
+		SchedulerShard shard = shard(false);
+		long now = System.nanoTime();
+		long deadlineNanos = now + TimeUnit.MINUTES.toNanos(10);
+		for (String appId : new String[] {"a", "b", "c"}) {
+			shard.schedule(appId, SHARED, deadlineNanos, now);
+		}
+		assertShared(1, 3);
+
+		assertEquals("cancelled", shard.cancel("a"));
+		assertShared(1, 2);
+		shard.schedule("b", OTHER, deadlineNanos, System.nanoTime());
+		assertShared(2, 2);
+		shard.schedule("c", OTHER, deadlineNanos, System.nanoTime());
+		assertShared(1, 2);
+		assertEquals(OTHER, shard.getPayload("c"));
+
+		shard.cancel("b");
+		shard.cancel("c");
+		assertShared(0, 0);
+	}
+
+	@Test
+	void firingReleasesTheReference() throws Exception {
+		SchedulerShard shard = shard(false);
+		long now = System.nanoTime();
+		shard.schedule("a", SHARED, now + TimeUnit.MILLISECONDS.toNanos(20), now);
+		shard.schedule("b", SHARED, now + TimeUnit.MILLISECONDS.toNanos(20), now);
+		assertShared(1, 2);
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+		while (owner.fired.size() < 2 && System.nanoTime() - deadline < 0) {
+			Thread.sleep(1);
+		}
+		assertEquals(2, owner.fired.size());
+		assertEquals(SHARED, owner.fired.get(0).payload);
+		assertEquals(SHARED, owner.fired.get(1).payload);
+		assertShared(0, 0);
+	}
+
+	@Test
+	void lazyRescheduleSwapsTheSharedPayload() {
+		SchedulerShard shard = shard(true);
+		long now = System.nanoTime();
+		shard.schedule("a", SHARED, now + TimeUnit.MINUTES.toNanos(1), now);
+		// later deadline: deferred in place, the old payload's reference goes with it
+		shard.schedule("a", OTHER, now + TimeUnit.MINUTES.toNanos(10), System.nanoTime());
+		assertShared(1, 1);
+		assertEquals(OTHER, shard.getPayload("a"));
+
+		shard.cancel("a");
+		assertShared(0, 0);
+	}
+
+	private SchedulerShard shard(boolean lazyReschedule) {
+		return owner.shard(new SchedulerShard(0, wheel, lazyReschedule, null, null, null,
+			new PayloadCodec(0, 1), dedup, new HeapBudget(), owner));
+	}
+
+	private void assertShared(long distinct, long references) {
+		assertEquals(distinct, ((Number) dedup.snapshot().get("dedupDistinct")).longValue());
+		assertEquals(references, ((Number) dedup.snapshot().get("dedupReferences")).longValue());
+	}
+}
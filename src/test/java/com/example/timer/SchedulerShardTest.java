@@ -0,0 +1,135 @@
+package com.example.timer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Lazy reschedule of SchedulerShard: deferred entries keep their armed timer and fire at the deadline they were moved to.
+ */
+class SchedulerShardTest {
+
+	private final HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(1, 64, "test-wheel");
+
+	private final RecordingOwner owner = new RecordingOwner();
+
+	private final SchedulerShard shard = owner.shard(new SchedulerShard(0, wheel, true, null, null, null,
+		new PayloadCodec(0, 1), null, new HeapBudget(), owner));
+
+	@AfterEach
+	void shutdown() {
+		shard.shutdown();
+	}
+
+	@Test
+	void laterRescheduleFiresOnceAtTheNewDeadline() throws Exception {
+		long start = System.nanoTime();
+		assertEquals("scheduled", shard.schedule("a", "{\"v\":1}", start + TimeUnit.MILLISECONDS.toNanos(50), start));
+		long deadlineNanos = start + TimeUnit.MILLISECONDS.toNanos(300);
+		assertEquals("scheduled", shard.schedule("a", "{\"v\":2}", deadlineNanos, System.nanoTime()));
+
+		Fired fired = owner.awaitFirst(2, TimeUnit.SECONDS);
+		assertTrue(fired.atNanos - deadlineNanos >= 0, "fired before its new deadline");
+		assertEquals("{\"v\":2}", fired.payload);
+		// the timer armed for the old deadline must not fire a second time
+		Thread.sleep(200);
+		assertEquals(1, owner.fired.size());
+		assertEquals(0, shard.pendingCount());
+	}
+
+	@Test
+	void earlierRescheduleFiresAtTheEarlierDeadline() throws Exception {
+		long start = System.nanoTime();
+		shard.schedule("a", "{\"v\":1}", start + TimeUnit.SECONDS.toNanos(5), start);
+		long deadlineNanos = start + TimeUnit.MILLISECONDS.toNanos(50);
+		shard.schedule("a", "{\"v\":2}", deadlineNanos, System.nanoTime());
+
+		Fired fired = owner.awaitFirst(2, TimeUnit.SECONDS);
+		assertTrue(fired.atNanos - deadlineNanos >= 0, "fired before its deadline");
+		assertEquals("{\"v\":2}", fired.payload);
+		assertEquals(0, shard.pendingCount());
+	}
+
+	@Test
+	void cancelledDeferredEntryNeverFires() throws Exception {
+		long start = System.nanoTime();
+		shard.schedule("a", "{\"v\":1}", start + TimeUnit.MILLISECONDS.toNanos(50), start);
+		shard.schedule("a", "{\"v\":2}", start + TimeUnit.MILLISECONDS.toNanos(150), System.nanoTime());
+		assertEquals("cancelled", shard.cancel("a"));
+
+		Thread.sleep(400);
+		assertEquals(0, owner.fired.size());
+		assertEquals(0, shard.pendingCount());
+	}
+
+	static final class Fired {
+
+		final String appId;
+		final String payload;
+		final long atNanos;
+
+		Fired(String appId, String payload, long atNanos) {
+			this.appId = appId;
+			this.payload = payload;
+			this.atNanos = atNanos;
+		}
+	}
+
+	// accepts every dispatch and remembers when it happened
+	static final class RecordingOwner implements SchedulerShard.Owner {
+
+		final List<Fired> fired = new CopyOnWriteArrayList<>();
+
+		private final FireTimeStats stats = new FireTimeStats(50);
+
+		private SchedulerShard shard;
+
+		SchedulerShard shard(SchedulerShard shard) {
+			this.shard = shard;
+			return shard;
+		}
+
+		Fired awaitFirst(long timeout, TimeUnit unit) throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			while (fired.isEmpty() && System.nanoTime() - deadline < 0) {
+				Thread.sleep(1);
+			}
+			assertFalse(fired.isEmpty(), "nothing fired");
+			return fired.get(0);
+		}
+
+		@Override
+		public FireTimeStats fireStats() {
+			return stats;
+		}
+
+		@Override
+		public boolean dispatch(String appId, String payloadJson) {
+			fired.add(new Fired(appId, payloadJson, System.nanoTime()));
+			return true;
+		}
+
+		@Override
+		public boolean dispatch(String appId, byte[] payloadUtf8) {
+			return dispatch(appId, new String(payloadUtf8, StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public long retryDelayNanos() {
+			return TimeUnit.MILLISECONDS.toNanos(10);
+		}
+
+		@Override
+		public SchedulerShard shardFor(String appId) {
+			return shard;
+		}
+	}
+}
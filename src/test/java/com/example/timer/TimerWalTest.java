@@ -0,0 +1,157 @@
+package com.example.timer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Write, reopen and replay round trips of TimerWal against a temporary log directory.
+ */
+class TimerWalTest {
+
+	private static final long DELAY_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void recoversTheLastScheduleOfEveryPendingTask() throws Exception {
+		long deadlineNanos = System.nanoTime() + DELAY_NANOS;
+		long expectedEpochMillis = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(DELAY_NANOS);
+		TimerWal wal = open();
+		wal.appendSchedule("a", "{\"v\":1}", deadlineNanos);
+		wal.appendSchedule("b", "{\"v\":2}", deadlineNanos);
+		wal.appendSchedule("c", "{\"v\":3}".getBytes(StandardCharsets.UTF_8), deadlineNanos);
+		wal.appendSchedule("d", "{\"v\":4}", deadlineNanos);
+		wal.appendCancel("b");
+		wal.appendFire("d");
+		wal.appendSchedule("a", "{\"v\":5}", deadlineNanos);
+		close(wal);
+
+		Map<String, TimerWal.Record> recovered = recover();
+		// a was rescheduled last, so it comes after c
+		assertEquals(List.of("c", "a"), List.copyOf(recovered.keySet()));
+		assertEquals("{\"v\":5}", recovered.get("a").payload);
+		assertEquals("{\"v\":3}", recovered.get("c").payload);
+		assertEquals(expectedEpochMillis, recovered.get("a").deadlineEpochMillis, 1000);
+	}
+
+	@Test
+	void replaysEverySegmentAfterARoll() throws Exception {
+		long deadlineNanos = System.nanoTime() + DELAY_NANOS;
+		TimerWal wal = open();
+		wal.appendSchedule("a", "{\"v\":1}", deadlineNanos);
+		wal.appendSchedule("b", "{\"v\":2}", deadlineNanos);
+		TimerWal.Record roll = wal.roll();
+		assertNotNull(roll);
+		wal.appendCancel("a");
+		wal.appendSchedule("c", "{\"v\":3}", deadlineNanos);
+		close(wal);
+
+		assertEquals(2, files("timer-", ".wal").size());
+		Map<String, TimerWal.Record> recovered = recover();
+		assertEquals(List.of("b", "c"), List.copyOf(recovered.keySet()));
+	}
+
+	@Test
+	void compactionReplacesOlderSegmentsWithASnapshot() throws Exception {
+		long deadlineNanos = System.nanoTime() + DELAY_NANOS;
+		TimerWal wal = open();
+		for (int i = 0; i < 100; i++) {
+			wal.appendSchedule("task-" + i, "{\"v\":" + i + "}", deadlineNanos);
+		}
+		for (int i = 0; i < 50; i++) {
+			wal.appendCancel("task-" + i);
+		}
+		TimerWal.Record roll = wal.roll();
+		assertNotNull(roll);
+		assertTrue(wal.writeSnapshot(roll, writer -> {
+			for (int i = 50; i < 100; i++) {
+				writer.add("task-" + i, "{\"v\":" + i + "}", deadlineNanos);
+			}
+		}));
+		// logged after the roll: replayed on top of the snapshot
+		wal.appendCancel("task-50");
+		wal.appendSchedule("task-99", "{\"v\":\"new\"}", deadlineNanos);
+		wal.appendSchedule("task-100", "{\"v\":100}", deadlineNanos);
+		close(wal);
+
+		assertEquals(1, files("snapshot-", ".snap").size());
+		assertEquals(1, files("timer-", ".wal").size());
+		Map<String, TimerWal.Record> recovered = recover();
+		assertEquals(50, recovered.size());
+		assertFalse(recovered.containsKey("task-50"));
+		assertEquals("{\"v\":51}", recovered.get("task-51").payload);
+		assertEquals("{\"v\":\"new\"}", recovered.get("task-99").payload);
+		assertEquals("{\"v\":100}", recovered.get("task-100").payload);
+	}
+
+	@Test
+	void recoveryRelogsEveryTaskThroughASmallQueue() throws Exception {
+		long deadlineNanos = System.nanoTime() + DELAY_NANOS;
+		// room for everything: outside of recovery a full queue drops records
+		TimerWal wal = open(32768);
+		for (int i = 0; i < 20000; i++) {
+			wal.appendSchedule("task-" + i, "{\"v\":" + i + "}", deadlineNanos);
+		}
+		close(wal);
+
+		// restart the way TimerManager does, with a writer queue far smaller than the task count
+		TimerWal restarted = open(16);
+		Map<String, TimerWal.Record> pending = restarted.recover();
+		assertEquals(20000, pending.size());
+		for (TimerWal.Record record : pending.values()) {
+			restarted.appendSchedule(record.appId, record.payload, deadlineNanos);
+		}
+		restarted.deleteReplayedSegments();
+		close(restarted);
+
+		assertEquals(20000, recover().size());
+	}
+
+	private TimerWal open() throws IOException {
+		return open(1024);
+	}
+
+	private TimerWal open(int queueCapacity) throws IOException {
+		return TimerWal.open(directory, queueCapacity, TimerWal.parseDurability("async"), 1000, 1000);
+	}
+
+	private static void close(TimerWal wal) throws InterruptedException {
+		assertTrue(wal.flush(5, TimeUnit.SECONDS));
+		wal.shutdown();
+	}
+
+	// what a restart would see; the reopened log's own empty segment stays behind
+	private Map<String, TimerWal.Record> recover() throws Exception {
+		TimerWal reopened = open();
+		try {
+			return reopened.recover();
+		} finally {
+			reopened.shutdown();
+		}
+	}
+
+	private List<Path> files(String prefix, String suffix) throws IOException {
+		try (Stream<Path> listed = Files.list(directory)) {
+			return listed.filter(file -> {
+				String name = file.getFileName().toString();
+				return name.startsWith(prefix) && name.endsWith(suffix);
+			}).collect(Collectors.toList());
+		}
+	}
+}